@@ -17,6 +17,10 @@ import __main__
 class CodeTracer:
     '''
     Eclipse Debugger class.
+    
+    Fallback only: by default JythonDebugger traces with the java based
+    JythonDebugTracer. This class is used when the preference
+    "debuggerPythonTracer" of the Jython engine is enabled.
     '''
     _debugger = None
 
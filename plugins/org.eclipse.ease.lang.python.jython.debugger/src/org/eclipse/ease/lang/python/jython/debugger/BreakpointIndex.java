@@ -0,0 +1,321 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Martin Kloesch and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Martin Kloesch - initial implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython.debugger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IMarkerDelta;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.debug.core.DebugPlugin;
+import org.eclipse.debug.core.IBreakpointListener;
+import org.eclipse.debug.core.model.IBreakpoint;
+import org.eclipse.ease.Script;
+import org.eclipse.ease.lang.python.jython.debugger.model.JythonDebugModelPresentation;
+
+/**
+ * Index of Jython breakpoints per resource. Kept up to date by listening to the breakpoint manager. Each modification increases the index generation,
+ * allowing clients to detect changes cheaply. Breakpoint details are parsed once when a breakpoint is added or changed.
+ */
+public class BreakpointIndex implements IBreakpointListener {
+
+	private static final int[] NO_LINES = new int[0];
+
+	private static final IBreakpoint[] NO_BREAKPOINTS = new IBreakpoint[0];
+
+	private static final BreakpointInfo[] NO_INFOS = new BreakpointInfo[0];
+
+	/** Sorted lines of enabled breakpoints per resource. Arrays are never modified but replaced. */
+	private final Map<IResource, int[]> fLines = new ConcurrentHashMap<IResource, int[]>();
+
+	/** Breakpoints per resource, regardless of their enablement. Arrays are never modified but replaced. */
+	private final Map<IResource, IBreakpoint[]> fResourceBreakpoints = new ConcurrentHashMap<IResource, IBreakpoint[]>();
+
+	/** Details of enabled breakpoints per resource. Arrays are never modified but replaced. */
+	private final Map<IResource, BreakpointInfo[]> fResourceInfos = new ConcurrentHashMap<IResource, BreakpointInfo[]>();
+
+	/** Registered breakpoints with their parsed details. */
+	private final Map<IBreakpoint, BreakpointInfo> fBreakpoints = new HashMap<IBreakpoint, BreakpointInfo>();
+
+	/** Registered breakpoints grouped by resource. Updates only need to look at the breakpoints of the affected resource. */
+	private final Map<IResource, Map<IBreakpoint, BreakpointInfo>> fBreakpointsByResource = new HashMap<IResource, Map<IBreakpoint, BreakpointInfo>>();
+
+	private volatile int fGeneration = 0;
+
+	public BreakpointIndex() {
+		synchronized (this) {
+			// register everything first, then build each resource entry once
+			final Set<IResource> resources = new HashSet<IResource>();
+			for (final IBreakpoint breakpoint : DebugPlugin.getDefault().getBreakpointManager().getBreakpoints(JythonDebugModelPresentation.ID)) {
+				final IResource resource = register(breakpoint);
+				if (resource != null)
+					resources.add(resource);
+			}
+
+			for (final IResource resource : resources)
+				rebuild(resource);
+		}
+
+		DebugPlugin.getDefault().getBreakpointManager().addBreakpointListener(this);
+	}
+
+	/**
+	 * Stop tracking breakpoint changes.
+	 */
+	public void dispose() {
+		DebugPlugin.getDefault().getBreakpointManager().removeBreakpointListener(this);
+	}
+
+	/**
+	 * Get lines with enabled breakpoints for a given script.
+	 *
+	 * @param script
+	 *            script to look up
+	 * @return sorted breakpoint lines, never <code>null</code>. Must not be modified
+	 */
+	public int[] getLines(final Script script) {
+		final IResource resource = getResource(script);
+		if (resource != null) {
+			final int[] lines = fLines.get(resource);
+			if (lines != null)
+				return lines;
+		}
+
+		return NO_LINES;
+	}
+
+	/**
+	 * Get all Jython breakpoints registered for a given script. Scripts not located in the workspace cannot carry breakpoints.
+	 *
+	 * @param script
+	 *            script to look up
+	 * @return breakpoints, never <code>null</code>. Must not be modified
+	 */
+	public IBreakpoint[] getBreakpoints(final Script script) {
+		final IResource resource = getResource(script);
+		if (resource != null) {
+			final IBreakpoint[] breakpoints = fResourceBreakpoints.get(resource);
+			if (breakpoints != null)
+				return breakpoints;
+		}
+
+		return NO_BREAKPOINTS;
+	}
+
+	/**
+	 * Get details of enabled breakpoints at a given location.
+	 *
+	 * @param script
+	 *            script to look up
+	 * @param line
+	 *            line number
+	 * @return breakpoint details, never <code>null</code>
+	 */
+	public BreakpointInfo[] getInfos(final Script script, final int line) {
+		final IResource resource = getResource(script);
+		if (resource != null) {
+			final BreakpointInfo[] infos = fResourceInfos.get(resource);
+			if (infos != null) {
+				int count = 0;
+				for (final BreakpointInfo info : infos) {
+					if (info.getLinenumber() == line)
+						count++;
+				}
+
+				if (count > 0) {
+					final BreakpointInfo[] result = new BreakpointInfo[count];
+					count = 0;
+					for (final BreakpointInfo info : infos) {
+						if (info.getLinenumber() == line)
+							result[count++] = info;
+					}
+
+					return result;
+				}
+			}
+		}
+
+		return NO_INFOS;
+	}
+
+	/**
+	 * Get parsed details of a breakpoint.
+	 *
+	 * @param breakpoint
+	 *            breakpoint to look up
+	 * @return breakpoint details or <code>null</code> for unknown breakpoints
+	 */
+	public synchronized BreakpointInfo getInfo(final IBreakpoint breakpoint) {
+		return fBreakpoints.get(breakpoint);
+	}
+
+	/**
+	 * Restart hit counting of all breakpoints.
+	 */
+	public synchronized void resetHits() {
+		for (final BreakpointInfo info : fBreakpoints.values())
+			info.resetHits();
+	}
+
+	/**
+	 * Check for an enabled breakpoint at a given location. Does not allocate any objects.
+	 *
+	 * @param script
+	 *            script to look up
+	 * @param line
+	 *            line number
+	 * @return <code>true</code> when a breakpoint is set
+	 */
+	public boolean hasBreakpoint(final Script script, final int line) {
+		return Arrays.binarySearch(getLines(script), line) >= 0;
+	}
+
+	/**
+	 * Get the current index generation. The generation changes whenever breakpoints are modified.
+	 *
+	 * @return index generation
+	 */
+	public int getGeneration() {
+		return fGeneration;
+	}
+
+	@Override
+	public synchronized void breakpointAdded(final IBreakpoint breakpoint) {
+		final IResource previousResource = unregister(breakpoint);
+		final IResource resource = register(breakpoint);
+
+		if ((previousResource != null) && (!previousResource.equals(resource)))
+			rebuild(previousResource);
+
+		if (resource != null)
+			rebuild(resource);
+	}
+
+	@Override
+	public synchronized void breakpointRemoved(final IBreakpoint breakpoint, final IMarkerDelta delta) {
+		final IResource resource = unregister(breakpoint);
+		if (resource != null)
+			rebuild(resource);
+	}
+
+	@Override
+	public synchronized void breakpointChanged(final IBreakpoint breakpoint, final IMarkerDelta delta) {
+		// line number or enablement might have changed
+		breakpointAdded(breakpoint);
+	}
+
+	/**
+	 * Parse and store a breakpoint.
+	 *
+	 * @return resource of the breakpoint or <code>null</code> when the breakpoint was not registered
+	 */
+	private IResource register(final IBreakpoint breakpoint) {
+		if (!JythonDebugModelPresentation.ID.equals(breakpoint.getModelIdentifier()))
+			return null;
+
+		final IMarker marker = breakpoint.getMarker();
+		if ((marker == null) || (marker.getResource() == null))
+			return null;
+
+		final BreakpointInfo info = new BreakpointInfo(breakpoint);
+		final IResource resource = info.getResource();
+		if (resource == null)
+			return null;
+
+		fBreakpoints.put(breakpoint, info);
+
+		Map<IBreakpoint, BreakpointInfo> resourceBreakpoints = fBreakpointsByResource.get(resource);
+		if (resourceBreakpoints == null) {
+			resourceBreakpoints = new HashMap<IBreakpoint, BreakpointInfo>();
+			fBreakpointsByResource.put(resource, resourceBreakpoints);
+		}
+		resourceBreakpoints.put(breakpoint, info);
+
+		return resource;
+	}
+
+	/**
+	 * Remove a stored breakpoint.
+	 *
+	 * @return resource the breakpoint was registered for or <code>null</code> for unknown breakpoints
+	 */
+	private IResource unregister(final IBreakpoint breakpoint) {
+		final BreakpointInfo info = fBreakpoints.remove(breakpoint);
+		if (info == null)
+			return null;
+
+		final IResource resource = info.getResource();
+		final Map<IBreakpoint, BreakpointInfo> resourceBreakpoints = fBreakpointsByResource.get(resource);
+		if (resourceBreakpoints != null) {
+			resourceBreakpoints.remove(breakpoint);
+			if (resourceBreakpoints.isEmpty())
+				fBreakpointsByResource.remove(resource);
+		}
+
+		return resource;
+	}
+
+	private void rebuild(final IResource resource) {
+		final Map<IBreakpoint, BreakpointInfo> resourceBreakpoints = fBreakpointsByResource.get(resource);
+		final int size = (resourceBreakpoints != null) ? resourceBreakpoints.size() : 0;
+
+		final List<IBreakpoint> breakpoints = new ArrayList<IBreakpoint>(size);
+		final List<BreakpointInfo> infos = new ArrayList<BreakpointInfo>(size);
+		int[] lines = new int[size];
+		int count = 0;
+		if (resourceBreakpoints != null) {
+			for (final Map.Entry<IBreakpoint, BreakpointInfo> entry : resourceBreakpoints.entrySet()) {
+				final BreakpointInfo info = entry.getValue();
+				breakpoints.add(entry.getKey());
+
+				if ((info.isEnabled()) && (info.getLinenumber() > 0)) {
+					infos.add(info);
+					lines[count++] = info.getLinenumber();
+				}
+			}
+		}
+
+		if (breakpoints.isEmpty())
+			fResourceBreakpoints.remove(resource);
+		else
+			fResourceBreakpoints.put(resource, breakpoints.toArray(new IBreakpoint[breakpoints.size()]));
+
+		if (count == 0) {
+			fLines.remove(resource);
+			fResourceInfos.remove(resource);
+
+		} else {
+			lines = Arrays.copyOf(lines, count);
+			Arrays.sort(lines);
+			fLines.put(resource, lines);
+			fResourceInfos.put(resource, infos.toArray(new BreakpointInfo[infos.size()]));
+		}
+
+		fGeneration++;
+	}
+
+	private static IResource getResource(final Script script) {
+		if (script != null) {
+			final Object file = script.getFile();
+			if (file instanceof IResource)
+				return (IResource) file;
+		}
+
+		return null;
+	}
+}
@@ -12,10 +12,19 @@ package org.eclipse.ease.lang.python.jython.debugger;
 
 import java.io.File;
 
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
 import org.eclipse.debug.core.model.IBreakpoint;
 import org.eclipse.debug.core.model.LineBreakpoint;
+import org.python.core.CompileMode;
+import org.python.core.CompilerFlags;
+import org.python.core.Py;
+import org.python.core.PyCode;
+import org.python.core.PyException;
+import org.python.core.PyFrame;
 
 /**
  * Helper class to parse IBreakpoint and have easy access to information in Jython.
@@ -23,15 +32,36 @@ import org.eclipse.debug.core.model.LineBreakpoint;
  * @author kloeschmartin
  */
 public class BreakpointInfo {
+
+	/** Marker attribute of PyDev breakpoints storing the condition expression. */
+	public static final String ATTRIBUTE_CONDITION = "org.python.pydev.debug.condition";
+
+	/** Marker attribute of PyDev breakpoints enabling the condition. */
+	public static final String ATTRIBUTE_CONDITION_ENABLED = "org.python.pydev.debug.conditionEnabled";
+
+	/** Marker attribute storing the hit count, edited on the breakpoint properties page. Only the hit matching this count suspends. */
+	public static final String ATTRIBUTE_HIT_COUNT = "org.eclipse.ease.lang.python.jython.debugger.hitCount";
+
 	/**
 	 * All necessary info for breakpoints (from Jython Edb point of view)
 	 */
+	private final IResource mResource;
 	private String mFilename;
 	private int mLinenumber = -1;
-	private final String mCondition = null;
-	private final int mHitcount = 0;
+	private boolean mEnabled = false;
+	private String mCondition = null;
+	private int mHitcount = 0;
 	private final boolean mTemporary = false;
 
+	/** Compiled condition, created on first evaluation. */
+	private PyCode mConditionCode = null;
+
+	/** Set when the condition cannot be compiled. Such breakpoints always suspend. */
+	private boolean mConditionInvalid = false;
+
+	/** Amount of hits within the current execution. Only modified from the tracing thread. */
+	private int mHits = 0;
+
 	/**
 	 * Parses breakpoint info from IBreakpoint to members
 	 *
@@ -39,9 +69,20 @@ public class BreakpointInfo {
 	 *            : breakpoint to be parsed.
 	 */
 	public BreakpointInfo(final IBreakpoint breakpoint) {
+		mResource = breakpoint.getMarker().getResource();
+
 		// Calculate absolute filename (necessary for Jython debugger)
-		mFilename = breakpoint.getMarker().getResource().getFullPath().toOSString();
-		mFilename = new File(ResourcesPlugin.getWorkspace().getRoot().getLocation().toFile(), mFilename).getAbsolutePath();
+		final IPath location = mResource.getLocation();
+		if (location != null)
+			mFilename = location.toOSString();
+		else
+			mFilename = new File(ResourcesPlugin.getWorkspace().getRoot().getLocation().toFile(), mResource.getFullPath().toOSString()).getAbsolutePath();
+
+		try {
+			mEnabled = breakpoint.isEnabled();
+		} catch (CoreException e) {
+			// treat as disabled
+		}
 
 		// If LineBreakpoint given calculate Linenumber
 		if (breakpoint instanceof LineBreakpoint) {
@@ -50,25 +91,91 @@ public class BreakpointInfo {
 			} catch (CoreException e) {
 				e.printStackTrace();
 			}
+		} else
+			mLinenumber = breakpoint.getMarker().getAttribute(IMarker.LINE_NUMBER, -1);
+
+		// Get condition from marker attributes to avoid a PyDev dependency. Info objects get recreated on marker changes, so the compiled condition
+		// always matches the marker
+		final IMarker marker = breakpoint.getMarker();
+		if (marker.getAttribute(ATTRIBUTE_CONDITION_ENABLED, false)) {
+			final String condition = marker.getAttribute(ATTRIBUTE_CONDITION, null);
+			if ((condition != null) && (!condition.trim().isEmpty()))
+				mCondition = condition.trim();
 		}
 
-		// Get condition from PyBreakpoint
-		// FIXME temporary disabled to get rid of pydev dependency
-		// if (breakpoint instanceof PyBreakpoint) {
-		// try {
-		// mCondition = ((PyBreakpoint) breakpoint).getCondition();
-		// } catch (DebugException e) {
-		// }
-		// }
+		mHitcount = Math.max(0, marker.getAttribute(ATTRIBUTE_HIT_COUNT, 0));
+	}
+
+	/**
+	 * Register a hit of this breakpoint and decide whether execution needs to suspend. Evaluates the condition within the given frame, so this needs to
+	 * be called from the tracing thread.
+	 *
+	 * @param frame
+	 *            frame that reached the breakpoint line
+	 * @return <code>true</code> when the hit count is reached exactly and the condition is met or cannot be evaluated
+	 */
+	public boolean isHit(final PyFrame frame) {
+		if (mCondition != null) {
+			if (!evaluateCondition(frame))
+				return false;
+		}
+
+		// like JDT, suspend once when the hit count is reached
+		mHits++;
+		return (mHitcount <= 1) || (mHits == mHitcount);
+	}
+
+	/**
+	 * Restart hit counting. Called when a new execution starts, so the hit count applies to each run.
+	 */
+	public void resetHits() {
+		mHits = 0;
+	}
+
+	/**
+	 * Check whether the hit needs further evaluation. Unconditional breakpoints without hit count always suspend.
+	 *
+	 * @return <code>true</code> for conditional breakpoints or breakpoints with a hit count
+	 */
+	public boolean isConditional() {
+		return (mCondition != null) || (mHitcount > 1);
+	}
+
+	private boolean evaluateCondition(final PyFrame frame) {
+		if (mConditionInvalid)
+			return true;
+
+		try {
+			if (mConditionCode == null)
+				mConditionCode = Py.compile_flags(mCondition, "<breakpoint condition>", CompileMode.eval, new CompilerFlags());
+
+			return Py.runCode(mConditionCode, frame.getLocals(), frame.f_globals).__nonzero__();
+
+		} catch (final PyException e) {
+			if (mConditionCode == null)
+				// syntax error, suspend on every hit to make the user aware
+				mConditionInvalid = true;
+
+			// runtime errors suspend to allow the user to inspect the situation
+			return true;
+		}
 	}
 
 	// ************************************************************
 	// Getter methods for necessary information
 	// ************************************************************
+	public IResource getResource() {
+		return mResource;
+	}
+
 	public String getFilename() {
 		return mFilename;
 	}
 
+	public boolean isEnabled() {
+		return mEnabled;
+	}
+
 	public int getLinenumber() {
 		return mLinenumber;
 	}
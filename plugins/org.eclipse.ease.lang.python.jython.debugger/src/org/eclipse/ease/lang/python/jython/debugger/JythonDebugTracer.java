@@ -0,0 +1,35 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Martin Kloesch and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Martin Kloesch - initial implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython.debugger;
+
+import org.python.core.Py;
+import org.python.core.PyFrame;
+import org.python.core.PyObject;
+
+/**
+ * Trace function relaying trace events directly to {@link JythonDebugger}. Replaces the python callback of edb.py, so no python frame needs to be executed
+ * per traced line. Returns <code>None</code> for frames the debugger does not need to trace.
+ */
+public class JythonDebugTracer extends PyObject {
+
+	private static final long serialVersionUID = -3176598305633391452L;
+
+	private final JythonDebugger fDebugger;
+
+	public JythonDebugTracer(final JythonDebugger debugger) {
+		fDebugger = debugger;
+	}
+
+	@Override
+	public PyObject __call__(final PyObject frame, final PyObject event, final PyObject arg) {
+		return (fDebugger.traceDispatch((PyFrame) frame, event.toString())) ? this : Py.None;
+	}
+}
@@ -12,11 +12,8 @@ package org.eclipse.ease.lang.python.jython.debugger;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
-import java.util.Set;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.debug.core.DebugEvent;
@@ -28,22 +25,36 @@ import org.eclipse.ease.debugging.IEventProcessor;
 import org.eclipse.ease.debugging.IScriptDebugFrame;
 import org.eclipse.ease.debugging.events.IDebugEvent;
 import org.eclipse.ease.debugging.events.TerminateRequest;
+import org.eclipse.ease.lang.python.jython.TraceFunctionAdapter;
+import org.python.core.CompileMode;
+import org.python.core.CompilerFlags;
 import org.python.core.Py;
+import org.python.core.PyBaseCode;
+import org.python.core.PyCode;
 import org.python.core.PyFrame;
 import org.python.core.PyObject;
+import org.python.core.PySystemState;
+import org.python.core.ThreadState;
+import org.python.core.TraceFunction;
 
 /**
- * Debugger class handling communication between JythonDebugTarget and edb.py.
+ * Debugger class handling communication between JythonDebugTarget and the Jython interpreter. Trace events are received from {@link JythonDebugTracer}
+ * or, as a fallback, from edb.py.
  */
 public class JythonDebugger extends AbstractScriptDebugger implements IEventProcessor, IExecutionListener {
 
 	public class JythonDebugFrame implements IScriptDebugFrame {
 
 		private final PyFrame fFrame;
+		private final Script fScript;
 		private int fLineNumber = 0;
 
-		public JythonDebugFrame(final PyFrame frame) {
+		/** Variable view, created on first request. Debug frames are rebuilt on every suspend, so the view never outlives its position. */
+		private Map<String, Object> fVariables = null;
+
+		public JythonDebugFrame(final PyFrame frame, final Script script) {
 			fFrame = frame;
+			fScript = script;
 		}
 
 		@Override
@@ -53,7 +64,7 @@ public class JythonDebugger extends AbstractScriptDebugger implements IEventProc
 
 		@Override
 		public Script getScript() {
-			return fScriptRegistry.get(fFrame.f_code.co_filename);
+			return fScript;
 		}
 
 		@Override
@@ -88,7 +99,10 @@ public class JythonDebugger extends AbstractScriptDebugger implements IEventProc
 
 		@Override
 		public Map<String, Object> getVariables() {
-			return getEngine().getVariables();
+			if (fVariables == null)
+				fVariables = LazyVariables.forFrame(fFrame);
+
+			return fVariables;
 		}
 
 		/*
@@ -106,14 +120,54 @@ public class JythonDebugger extends AbstractScriptDebugger implements IEventProc
 	private static final String PY_CMD_SET_DEBUGGER = "set_debugger";
 	private static final String PY_CMD_RUN = "run";
 
-	private PyObject fPythonStub;
+	private final JythonDebuggerEngine fEngine;
+
+	private final JythonDebugTracer fTracer;
+
+	/**
+	 * Trace function relaying events to {@link #fTracer}. Installed directly on thread states and frames: <code>sys.settrace()</code> and
+	 * <i>f_trace</i> would wrap the tracer in jython's PythonTraceFunction, which holds the global import lock while the debugger is suspended.
+	 */
+	private final TraceFunction fTraceFunction;
+
+	/** Python debugger stub, only set when edb.py is used for tracing. */
+	private PyObject fPythonStub = null;
+
+	/** Workspace breakpoints, used to decide which frames need to be traced. */
+	private final BreakpointIndex fBreakpointIndex;
+
+	/** Breakpoint generation frame tracing was last adjusted for. */
+	private int fTracedGeneration = -1;
+
+	/** Stepping mode frame tracing was last adjusted for. */
+	private boolean fTracedStepping = false;
+
+	/** Innermost tracked frame of the last trace event. The stack trace is built from it on demand. */
+	private PyFrame fCurrentFrame = null;
 
-	public JythonDebugger(final JythonDebuggerEngine engine, final boolean showDynamicCode) {
+	/** Whether the stack trace of the base class matches fCurrentFrame. */
+	private boolean fStacktraceValid = false;
+
+	/** Code object of the last script lookup. */
+	private PyBaseCode fLastCode = null;
+
+	/** Script of the last script lookup. */
+	private Script fLastScript = null;
+
+	/** Nesting level of {@link #execute(Script)}. */
+	private int fExecutionDepth = 0;
+
+	public JythonDebugger(final JythonDebuggerEngine engine, final boolean showDynamicCode, final BreakpointIndex breakpointIndex) {
 		super(engine, showDynamicCode);
+
+		fEngine = engine;
+		fTracer = new JythonDebugTracer(this);
+		fTraceFunction = new TraceFunctionAdapter(fTracer);
+		fBreakpointIndex = breakpointIndex;
 	}
 
 	/**
-	 * Link Jython stub with this debugger instance.
+	 * Link Jython stub with this debugger instance. Only needed when edb.py is used instead of {@link JythonDebugTracer}.
 	 *
 	 * @param pythonStub
 	 *            jython debugger stub instance
@@ -138,7 +192,7 @@ public class JythonDebugger extends AbstractScriptDebugger implements IEventProc
 	}
 
 	private static boolean isUserCode(final PyFrame frame) {
-		return frame.f_code.co_filename.startsWith("__ref_");
+		return ScriptRegistry.isReference(frame.f_code.co_filename);
 	}
 
 	private List<IScriptDebugFrame> getStacktrace(final PyFrame origin) {
@@ -147,8 +201,9 @@ public class JythonDebugger extends AbstractScriptDebugger implements IEventProc
 		PyFrame frame = origin;
 		while (frame != null) {
 			if (isUserCode(frame)) {
-				if (isTrackedScript(fScriptRegistry.get(frame.f_code.co_filename)))
-					trace.add(new JythonDebugFrame(frame));
+				final Script script = getScript(frame.f_code);
+				if (isTrackedScript(script))
+					trace.add(new JythonDebugFrame(frame, script));
 			}
 
 			frame = frame.f_back;
@@ -157,51 +212,222 @@ public class JythonDebugger extends AbstractScriptDebugger implements IEventProc
 		return trace;
 	}
 
-	public void traceDispatch(final PyFrame frame, final String type) {
+	/**
+	 * Get the stack trace of the current execution position. The stack trace is built on first request after each trace event.
+	 */
+	@Override
+	public List<IScriptDebugFrame> getStacktrace() {
+		if ((!fStacktraceValid) && (fCurrentFrame != null))
+			materializeStacktrace();
+
+		return super.getStacktrace();
+	}
+
+	private void materializeStacktrace() {
+		fStacktraceValid = true;
+		setStacktrace(getStacktrace(fCurrentFrame));
+	}
+
+	/**
+	 * Get the script a code object belongs to. The last lookup is cached as consecutive events typically originate from the same code object.
+	 *
+	 * @param code
+	 *            code object
+	 * @return script or <code>null</code>
+	 */
+	private Script getScript(final PyBaseCode code) {
+		if (code != fLastCode) {
+			fLastScript = fScriptRegistry.get(code);
+			fLastCode = code;
+		}
+
+		return fLastScript;
+	}
+
+	/**
+	 * Handle a trace event.
+	 *
+	 * @param frame
+	 *            frame the event occurred in
+	 * @param type
+	 *            event type
+	 * @return <code>true</code> when the frame needs further tracing
+	 */
+	public boolean traceDispatch(final PyFrame frame, final String type) {
 		if (getResumeType() == DebugEvent.STEP_END)
 			throw new ExitException("Debug aborted by user");
 
 		if (isUserCode(frame)) {
-			Script script = fScriptRegistry.get(frame.f_code.co_filename);
+			final Script script = getScript(frame.f_code);
 
 			if (isTrackedScript(script)) {
 
-				// update stacktrace
-				setStacktrace(getStacktrace(frame));
+				// remember position, stack trace gets built on demand
+				fCurrentFrame = frame;
+				fStacktraceValid = false;
 
 				// do not process script load event (line == 0)
-				if (frame.f_lineno != 0)
-					processLine(script, frame.f_lineno);
+				if (frame.f_lineno != 0) {
+					if (isStepping()) {
+						// we are about to suspend, provide stack trace
+						materializeStacktrace();
+						processLine(script, frame.f_lineno);
+
+					} else if (fBreakpointIndex.hasBreakpoint(script, frame.f_lineno)) {
+						// conditions and hit counts get evaluated here, the UI only gets involved on real hits
+						if (isBreakpointHit(script, frame)) {
+							materializeStacktrace();
+							processLine(script, frame.f_lineno);
+						}
+					}
+				}
 			}
 		}
+
+		// step mode or breakpoints might have changed while we were suspended
+		final boolean stepping = isStepping();
+		final int generation = fBreakpointIndex.getGeneration();
+		if ((stepping != fTracedStepping) || (generation != fTracedGeneration)) {
+			fTracedStepping = stepping;
+			fTracedGeneration = generation;
+			enableTracing(frame.f_back);
+		}
+
+		if ((stepping) || (hasBreakpoints(frame)))
+			return true;
+
+		// module frames need to report their first line (suspend on startup)
+		return "call".equals(type) && "<module>".equals(frame.f_code.co_name);
 	}
 
-	public Object execute(final Script script) {
-		fPythonStub.invoke(PY_CMD_RUN, Py.javas2pys(script, registerScript(script)));
+	/**
+	 * Evaluate breakpoints at the current line of a frame.
+	 *
+	 * @param script
+	 *            script executed by frame
+	 * @param frame
+	 *            frame located on a breakpoint line
+	 * @return <code>true</code> when execution needs to suspend
+	 */
+	private boolean isBreakpointHit(final Script script, final PyFrame frame) {
+		for (final BreakpointInfo info : fBreakpointIndex.getInfos(script, frame.f_lineno)) {
+			if ((!info.isConditional()) || (info.isHit(frame)))
+				return true;
+		}
 
-		// FIXME return execution result
-		return null;
+		return false;
 	}
 
-	private final Map<String, Script> fScriptRegistry = new HashMap<String, Script>();
+	/**
+	 * Check whether the debugger is stepping. While stepping every frame needs to be traced.
+	 *
+	 * @return <code>true</code> when stepping or terminating
+	 */
+	private boolean isStepping() {
+		switch (getResumeType()) {
+		case DebugEvent.STEP_INTO:
+		case DebugEvent.STEP_OVER:
+		case DebugEvent.STEP_RETURN:
+		case DebugEvent.STEP_END:
+			return true;
+		default:
+			return false;
+		}
+	}
 
-	private String registerScript(final Script script) {
-		final String reference = getHash(script, fScriptRegistry.keySet());
-		fScriptRegistry.put(reference, script);
-		return reference;
+	/**
+	 * Check whether a breakpoint might be hit within the code of a frame. Breakpoints located before the first line of the code object cannot be hit.
+	 *
+	 * @param frame
+	 *            frame to check
+	 * @return <code>true</code> when the frame needs to be traced
+	 */
+	private boolean hasBreakpoints(final PyFrame frame) {
+		if (!isUserCode(frame))
+			return false;
+
+		for (final int line : fBreakpointIndex.getLines(getScript(frame.f_code))) {
+			if (line >= frame.f_code.co_firstlineno)
+				return true;
+		}
+
+		return false;
 	}
 
-	private static String getHash(final Script script, final Set<String> existingKeys) {
-		StringBuilder buffer = new StringBuilder("__ref_");
-		buffer.append(script.isDynamic() ? "dyn" : script.getCommand().toString());
-		buffer.append("_");
+	/**
+	 * Switch tracing back on for active frames that were untraced before.
+	 *
+	 * @param origin
+	 *            innermost frame to start with
+	 */
+	private void enableTracing(final PyFrame origin) {
+		if (fPythonStub != null)
+			// edb.py traces all frames anyway
+			return;
 
-		for (int index = 0; index < 10; index++)
-			buffer.append((char) ('a' + new Random().nextInt(26)));
+		PyFrame frame = origin;
+		while (frame != null) {
+			if ((fTracedStepping) || (hasBreakpoints(frame)))
+				frame.tracefunc = fTraceFunction;
 
-		if (existingKeys.contains(buffer.toString()))
-			return getHash(script, existingKeys);
+			frame = frame.f_back;
+		}
+	}
+
+	public Object execute(final Script script) throws Exception {
+		final String reference = fScriptRegistry.register(script);
+
+		if (fExecutionDepth++ == 0)
+			// hit counts apply per execution, not to all executions of the debug session
+			fBreakpointIndex.resetHits();
+
+		// like JythonScriptEngine, activate the engine system state (sys.path, sys.modules, ...) and restore the one of the calling thread afterwards
+		final PySystemState previousSystemState = Py.getSystemState();
+		Py.setSystemState(fEngine.getSystemState());
+
+		// nested executions need the outer trace function back when done
+		final ThreadState state = Py.getThreadState();
+		final TraceFunction previousTraceFunction = state.tracefunc;
+
+		try {
+			if (fPythonStub != null)
+				// python fallback
+				fPythonStub.invoke(PY_CMD_RUN, Py.javas2pys(script, reference));
+
+			else {
+				final PyCode code = Py.compile_flags(script.getCode() + "\n", reference, CompileMode.exec, new CompilerFlags());
+				fScriptRegistry.bind(reference, code);
+				state.tracefunc = fTraceFunction;
+				Py.exec(code, fEngine.getGlobals(), null);
+			}
+
+		} finally {
+			// do not keep tracing the engine thread once the script is done
+			state.tracefunc = previousTraceFunction;
+			Py.setSystemState(previousSystemState);
+
+			fScriptRegistry.release(reference);
+			fExecutionDepth--;
 
-		return buffer.toString();
+			// do not keep frames and scripts of finished code alive, the next trace event sets them again
+			fCurrentFrame = null;
+			fStacktraceValid = false;
+			fLastCode = null;
+			fLastScript = null;
+		}
+
+		// FIXME return execution result
+		return null;
+	}
+
+	private final ScriptRegistry fScriptRegistry = new ScriptRegistry();
+
+	/**
+	 * Get the registry resolving code objects to scripts.
+	 *
+	 * @return script registry
+	 */
+	public ScriptRegistry getScriptRegistry() {
+		return fScriptRegistry;
 	}
 }
\ No newline at end of file
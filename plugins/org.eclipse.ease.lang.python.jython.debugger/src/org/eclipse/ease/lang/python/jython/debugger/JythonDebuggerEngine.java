@@ -18,9 +18,12 @@ import org.eclipse.debug.core.ILaunch;
 import org.eclipse.ease.IDebugEngine;
 import org.eclipse.ease.Script;
 import org.eclipse.ease.debugging.EventDispatchJob;
+import org.eclipse.ease.lang.python.jython.Activator;
 import org.eclipse.ease.lang.python.jython.JythonScriptEngine;
 import org.eclipse.ease.lang.python.jython.debugger.model.JythonDebugTarget;
+import org.eclipse.ease.lang.python.jython.preferences.IJythonPreferenceConstants;
 import org.python.core.PyObject;
+import org.python.core.PySystemState;
 
 /**
  * A script engine to execute/debug Python code on a Jython interpreter.
@@ -30,6 +33,8 @@ import org.python.core.PyObject;
 public class JythonDebuggerEngine extends JythonScriptEngine implements IDebugEngine {
 	private JythonDebugger fDebugger = null;
 
+	private BreakpointIndex fBreakpointIndex = null;
+
 	private final Map<String, Script> fDynamicCode = new HashMap<String, Script>();
 
 	public void setDebugger(final JythonDebugger debugger) {
@@ -44,7 +49,11 @@ public class JythonDebuggerEngine extends JythonScriptEngine implements IDebugEn
 				// in case we were called using "Run as"
 				return true;
 
-			// load python part of debugger
+			if (!Activator.getDefault().getPreferenceStore().getBoolean(IJythonPreferenceConstants.DEBUGGER_PYTHON_TRACER))
+				// JythonDebugger installs its native trace function on execution
+				return true;
+
+			// load python part of debugger (fallback)
 			final InputStream stream = ResourceHelper.getResourceStream("org.eclipse.ease.lang.python.jython.debugger", "python/edb.py");
 
 			try {
@@ -67,6 +76,34 @@ public class JythonDebuggerEngine extends JythonScriptEngine implements IDebugEn
 		return false;
 	}
 
+	/**
+	 * Get the global namespace scripts are executed in.
+	 *
+	 * @return global namespace
+	 */
+	public PyObject getGlobals() {
+		return getEngine().getLocals();
+	}
+
+	/**
+	 * Get the system state of this engine. Needs to be active on the executing thread while scripts run.
+	 *
+	 * @return engine system state
+	 */
+	public PySystemState getSystemState() {
+		return getEngine().getSystemState();
+	}
+
+	@Override
+	protected boolean teardownEngine() {
+		if (fBreakpointIndex != null) {
+			fBreakpointIndex.dispose();
+			fBreakpointIndex = null;
+		}
+
+		return super.teardownEngine();
+	}
+
 	@Override
 	protected Object internalExecute(Script script, Object reference, String fileName) throws Exception {
 		if (fDebugger != null)
@@ -77,10 +114,13 @@ public class JythonDebuggerEngine extends JythonScriptEngine implements IDebugEn
 
 	@Override
 	public void setupDebugger(final ILaunch launch, final boolean suspendOnStartup, final boolean suspendOnScriptLoad, final boolean showDynamicCode) {
-		final JythonDebugTarget target = new JythonDebugTarget(launch, suspendOnStartup, suspendOnScriptLoad, showDynamicCode);
+		// shared by debug target and debugger
+		fBreakpointIndex = new BreakpointIndex();
+
+		final JythonDebugTarget target = new JythonDebugTarget(launch, suspendOnStartup, suspendOnScriptLoad, showDynamicCode, fBreakpointIndex);
 		launch.addDebugTarget(target);
 
-		final JythonDebugger debugger = new JythonDebugger(this, showDynamicCode);
+		final JythonDebugger debugger = new JythonDebugger(this, showDynamicCode, fBreakpointIndex);
 
 		setDebugger(debugger);
 
@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Martin Kloesch and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Martin Kloesch - initial implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython.debugger;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.eclipse.ease.lang.python.jython.JythonScriptEngine;
+import org.python.core.PyDictionary;
+import org.python.core.PyFrame;
+import org.python.core.PyList;
+import org.python.core.PyObject;
+import org.python.core.PyStringMap;
+import org.python.core.PyTuple;
+
+/**
+ * Read only variable view on a python namespace, dictionary or sequence. Children are fetched when the view is iterated and values are converted to
+ * java only when requested. Large containers are split into pages of {@value #PAGE_SIZE} elements. Namespace variables are classified once by their
+ * {@link VariableKind}; hidden kinds are dropped before any child gets created.
+ */
+public class LazyVariables extends AbstractMap<String, Object> {
+
+	/** Maximum amount of children presented on one level. */
+	public static final int PAGE_SIZE = 100;
+
+	/** Variable name of the global namespace within function frames. */
+	public static final String GLOBALS_NAME = "(globals)";
+
+	private class LazyEntry implements Map.Entry<String, Object> {
+
+		private final int fIndex;
+		private String fName = null;
+		private Object fValue = null;
+		private boolean fConverted = false;
+
+		public LazyEntry(final int index) {
+			fIndex = index;
+		}
+
+		@Override
+		public String getKey() {
+			if (fName == null) {
+				if (fIndex == fEnd)
+					fName = GLOBALS_NAME;
+				else if (fSpan > 1)
+					fName = "[" + fIndex + ".." + (Math.min(fIndex + fSpan, fEnd) - 1) + "]";
+				else if (fKeys != null)
+					fName = fKeys[fIndex].toString();
+				else
+					fName = "[" + fIndex + "]";
+			}
+
+			return fName;
+		}
+
+		@Override
+		public Object getValue() {
+			if (!fConverted) {
+				if (fIndex == fEnd)
+					fValue = forNamespace(fGlobals, null);
+				else if (fSpan > 1)
+					fValue = new LazyVariables(fContainer, fKeys, fIndex, Math.min(fIndex + fSpan, fEnd), null);
+				else if (fKeys != null)
+					fValue = convert(fContainer.__finditem__(fKeys[fIndex]));
+				else
+					fValue = convert(fContainer.__getitem__(fIndex));
+
+				fConverted = true;
+			}
+
+			return fValue;
+		}
+
+		@Override
+		public Object setValue(final Object value) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/** Container to display. */
+	private final PyObject fContainer;
+
+	/** Keys of mappings, <code>null</code> for sequences. */
+	private final PyObject[] fKeys;
+
+	/** First element of this page. */
+	private final int fStart;
+
+	/** Element after the last one of this page. */
+	private final int fEnd;
+
+	/** Amount of elements represented by one child. */
+	private final int fSpan;
+
+	/** Global namespace added as additional child, may be <code>null</code>. */
+	private final PyObject fGlobals;
+
+	/** Classification of namespace keys, <code>null</code> when no filtering is needed. */
+	private final VariableKind[] fKinds;
+
+	/** Filtered view for the visibility settings stored below, <code>null</code> until first requested. */
+	private LazyVariables fVisibleVariables = null;
+
+	private boolean fVisibleFunctions;
+
+	private boolean fVisibleModules;
+
+	private LazyVariables(final PyObject container, final PyObject[] keys, final int start, final int end, final PyObject globals) {
+		this(container, keys, null, start, end, globals);
+	}
+
+	private LazyVariables(final PyObject container, final PyObject[] keys, final VariableKind[] kinds, final int start, final int end,
+			final PyObject globals) {
+		fContainer = container;
+		fKeys = keys;
+		fKinds = kinds;
+		fStart = start;
+		fEnd = end;
+		fGlobals = globals;
+
+		int span = 1;
+		while (((end - start) + span - 1) / span > PAGE_SIZE)
+			span *= PAGE_SIZE;
+
+		fSpan = span;
+	}
+
+	/**
+	 * Create a variable view for a stack frame. Module frames show their global namespace, function frames show their locals and the global namespace as
+	 * additional child.
+	 *
+	 * @param frame
+	 *            frame to display
+	 * @return variable view
+	 */
+	public static Map<String, Object> forFrame(final PyFrame frame) {
+		final PyObject locals = frame.getLocals();
+		if ((locals == frame.f_globals) || (frame.f_globals == null))
+			return forNamespace(locals, null);
+
+		return forNamespace(locals, frame.f_globals);
+	}
+
+	/**
+	 * Create a variable view for a namespace. Variables are classified immediately, visibility is evaluated whenever children are requested.
+	 */
+	private static LazyVariables forNamespace(final PyObject namespace, final PyObject globals) {
+		final List<PyObject> keys = new ArrayList<PyObject>();
+		final List<VariableKind> kinds = new ArrayList<VariableKind>();
+		for (final PyObject key : namespace.asIterable()) {
+			final VariableKind kind = VariableKind.classify(namespace.__finditem__(key));
+			if (kind != VariableKind.JAVA_PACKAGE) {
+				keys.add(key);
+				kinds.add(kind);
+			}
+		}
+
+		return new LazyVariables(namespace, keys.toArray(new PyObject[keys.size()]), kinds.toArray(new VariableKind[kinds.size()]), 0, keys.size(),
+				globals);
+	}
+
+	/**
+	 * Get a view containing visible namespace variables only. The view is cached for the lifetime of this frame view and rebuilt only when visibility
+	 * settings change.
+	 */
+	private synchronized LazyVariables getVisibleVariables() {
+		final boolean showFunctions = VariableKind.FUNCTION.isVisible();
+		final boolean showModules = VariableKind.MODULE.isVisible();
+
+		if ((fVisibleVariables != null) && (fVisibleFunctions == showFunctions) && (fVisibleModules == showModules))
+			return fVisibleVariables;
+
+		final List<PyObject> keys = new ArrayList<PyObject>(fKinds.length);
+		for (int index = 0; index < fKinds.length; index++) {
+			switch (fKinds[index]) {
+			case FUNCTION:
+				if (showFunctions)
+					keys.add(fKeys[index]);
+				break;
+			case MODULE:
+				if (showModules)
+					keys.add(fKeys[index]);
+				break;
+			default:
+				keys.add(fKeys[index]);
+				break;
+			}
+		}
+
+		fVisibleVariables = new LazyVariables(fContainer, keys.toArray(new PyObject[keys.size()]), 0, keys.size(), fGlobals);
+		fVisibleFunctions = showFunctions;
+		fVisibleModules = showModules;
+
+		return fVisibleVariables;
+	}
+
+	/**
+	 * Convert a python value for display. Containers are wrapped in lazy views, all other values are converted to java.
+	 */
+	private static Object convert(final PyObject value) {
+		if ((value instanceof PyStringMap) || (value instanceof PyDictionary)) {
+			final List<PyObject> keys = new ArrayList<PyObject>();
+			for (final PyObject key : value.asIterable())
+				keys.add(key);
+
+			return new LazyVariables(value, keys.toArray(new PyObject[keys.size()]), 0, keys.size(), null);
+		}
+
+		if ((value instanceof PyList) || (value instanceof PyTuple))
+			return new LazyVariables(value, null, 0, value.__len__(), null);
+
+		return JythonScriptEngine.toJava(value, false);
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		if (fKinds != null)
+			// apply view filters before creating any child
+			return getVisibleVariables().entrySet();
+
+		return new AbstractSet<Map.Entry<String, Object>>() {
+
+			@Override
+			public Iterator<Map.Entry<String, Object>> iterator() {
+				return new Iterator<Map.Entry<String, Object>>() {
+
+					private int fNext = fStart;
+
+					@Override
+					public boolean hasNext() {
+						return (fNext < fEnd) || ((fNext == fEnd) && (fGlobals != null));
+					}
+
+					@Override
+					public Map.Entry<String, Object> next() {
+						if (!hasNext())
+							throw new NoSuchElementException();
+
+						final LazyEntry entry = new LazyEntry(fNext);
+						fNext = (fNext < fEnd) ? Math.min(fNext + fSpan, fEnd) : fEnd + 1;
+						return entry;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return ((fEnd - fStart) + fSpan - 1) / fSpan + ((fGlobals != null) ? 1 : 0);
+			}
+		};
+	}
+}
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Martin Kloesch and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Martin Kloesch - initial implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython.debugger;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.eclipse.ease.Script;
+import org.python.core.PyBaseCode;
+import org.python.core.PyCode;
+import org.python.core.PyFunctionTable;
+import org.python.core.PyTableCode;
+
+/**
+ * Registry mapping code objects to executed scripts. Scripts stay registered while they are executed. Afterwards they are retained as long as code
+ * compiled from them is reachable, so functions defined by a script can still be resolved when called later on, no matter how many scripts were
+ * executed in the meantime.
+ * <p>
+ * All code objects compiled from a single script share the same {@link PyFunctionTable}, which is referenced weakly. Once neither the module code nor
+ * any function of a script is reachable anymore, the script is released.
+ * </p>
+ */
+public class ScriptRegistry {
+
+	/** Prefix of all code references. */
+	public static final String REFERENCE_PREFIX = "__ref_";
+
+	private static class Entry {
+		private final Script fScript;
+		private int fReferences = 1;
+
+		public Entry(final Script script) {
+			fScript = script;
+		}
+	}
+
+	/** Scripts currently executing with their execution count. */
+	private final Map<String, Entry> fActive = new HashMap<String, Entry>();
+
+	/** Scripts by the function table of their compiled code. Entries vanish when the code gets garbage collected. */
+	private final Map<PyFunctionTable, Script> fCompiled = new WeakHashMap<PyFunctionTable, Script>();
+
+	private long fCounter = 0;
+
+	/**
+	 * Check whether a code file name references a registered script.
+	 *
+	 * @param filename
+	 *            file name of a code object
+	 * @return <code>true</code> for script references
+	 */
+	public static boolean isReference(final String filename) {
+		return filename.startsWith(REFERENCE_PREFIX);
+	}
+
+	/**
+	 * Register a script for execution. Each registration needs to be released by {@link #release(String)} when the execution terminates.
+	 *
+	 * @param script
+	 *            script to be executed
+	 * @return unique reference to be used as code file name
+	 */
+	public synchronized String register(final Script script) {
+		final StringBuilder reference = new StringBuilder(REFERENCE_PREFIX);
+		reference.append(script.isDynamic() ? "dyn" : script.getCommand().toString());
+		reference.append('_').append(++fCounter);
+
+		final String key = reference.toString();
+		fActive.put(key, new Entry(script));
+
+		return key;
+	}
+
+	/**
+	 * Bind compiled code to a registered script. The script is retained while code compiled from it is reachable.
+	 *
+	 * @param reference
+	 *            reference returned by {@link #register(Script)}
+	 * @param code
+	 *            code compiled from the script
+	 */
+	public synchronized void bind(final String reference, final PyCode code) {
+		final Entry entry = fActive.get(reference);
+		if ((entry != null) && (code instanceof PyTableCode))
+			fCompiled.put(((PyTableCode) code).funcs, entry.fScript);
+	}
+
+	/**
+	 * Release a registered script. Once released the script is only retained while code compiled from it is reachable.
+	 *
+	 * @param reference
+	 *            reference returned by {@link #register(Script)}
+	 */
+	public synchronized void release(final String reference) {
+		final Entry entry = fActive.get(reference);
+		if ((entry != null) && (--entry.fReferences <= 0))
+			fActive.remove(reference);
+	}
+
+	/**
+	 * Get the script a code object was compiled from.
+	 *
+	 * @param code
+	 *            code object
+	 * @return script or <code>null</code> for code not compiled from a registered script
+	 */
+	public synchronized Script get(final PyBaseCode code) {
+		final PyFunctionTable functions = (code instanceof PyTableCode) ? ((PyTableCode) code).funcs : null;
+		if (functions != null) {
+			final Script script = fCompiled.get(functions);
+			if (script != null)
+				return script;
+		}
+
+		final Entry entry = fActive.get(code.co_filename);
+		if (entry == null)
+			return null;
+
+		// code compiled elsewhere (eg by edb.py), bind it now that we know its script
+		if (functions != null)
+			fCompiled.put(functions, entry.fScript);
+
+		return entry.fScript;
+	}
+
+	/**
+	 * Get the amount of distinct scripts currently held by the registry, either executing or retained by reachable code. Scripts of collected code
+	 * might still be counted until the next registry access.
+	 *
+	 * @return registered scripts
+	 */
+	public synchronized int size() {
+		final Set<Script> scripts = Collections.newSetFromMap(new IdentityHashMap<Script, Boolean>());
+		for (final Entry entry : fActive.values())
+			scripts.add(entry.fScript);
+
+		scripts.addAll(fCompiled.values());
+
+		return scripts.size();
+	}
+
+	/**
+	 * Get the amount of compiled code units bound to scripts, including code of scripts currently executing. Code that got garbage collected might
+	 * still be counted until the next registry access.
+	 *
+	 * @return bound code units
+	 */
+	public synchronized int getCompiledCount() {
+		return fCompiled.size();
+	}
+
+	/**
+	 * Get the amount of scripts currently executing.
+	 *
+	 * @return active scripts
+	 */
+	public synchronized int getActiveCount() {
+		return fActive.size();
+	}
+
+	/**
+	 * Drop all finished scripts. Functions of finished scripts can no longer be debugged.
+	 */
+	public synchronized void clear() {
+		fCompiled.clear();
+	}
+}
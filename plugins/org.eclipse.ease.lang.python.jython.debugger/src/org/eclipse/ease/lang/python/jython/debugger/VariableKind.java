@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Martin Kloesch and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Martin Kloesch - initial implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython.debugger;
+
+import org.eclipse.ease.Activator;
+import org.eclipse.ease.lang.python.jython.LazyJavaPackage;
+import org.eclipse.ease.modules.AbstractScriptModule;
+import org.python.core.PyFunction;
+import org.python.core.PyJavaPackage;
+import org.python.core.PyJavaType;
+import org.python.core.PyModule;
+import org.python.core.PyObject;
+
+/**
+ * Classification of variables displayed in the Variables view. Variables get classified once when the debug model is built, visibility is decided
+ * before model elements are created.
+ */
+public enum VariableKind {
+
+	/** Python functions, visibility controlled by the "Show functions" view action. */
+	FUNCTION("org.eclipse.ease.ui.show_functions"),
+
+	/** Python modules and EASE script modules, visibility controlled by the "Show modules" view action. */
+	MODULE("org.eclipse.ease.ui.show_modules"),
+
+	/** Java packages and java types, never displayed. */
+	JAVA_PACKAGE(null),
+
+	/** Any other value, always displayed. */
+	DATA(null);
+
+	private final String fPreferenceKey;
+
+	private VariableKind(final String preferenceKey) {
+		fPreferenceKey = preferenceKey;
+	}
+
+	/**
+	 * Get the preference key storing the visibility of this kind.
+	 *
+	 * @return preference key or <code>null</code> when visibility is fixed
+	 */
+	public String getPreferenceKey() {
+		return fPreferenceKey;
+	}
+
+	/**
+	 * Check whether variables of this kind are displayed.
+	 *
+	 * @return <code>true</code> when visible
+	 */
+	public boolean isVisible() {
+		if (fPreferenceKey != null)
+			return Activator.getDefault().getPreferenceStore().getBoolean(fPreferenceKey);
+
+		return this == DATA;
+	}
+
+	/**
+	 * Classify a python value.
+	 *
+	 * @param value
+	 *            raw python value
+	 * @return variable kind
+	 */
+	public static VariableKind classify(final PyObject value) {
+		if (value instanceof PyFunction)
+			return FUNCTION;
+
+		if ((value instanceof PyJavaPackage) || (value instanceof LazyJavaPackage) || (value instanceof PyJavaType))
+			return JAVA_PACKAGE;
+
+		if (value instanceof PyModule)
+			return MODULE;
+
+		if ((value != null) && (value.getJavaProxy() instanceof AbstractScriptModule))
+			return MODULE;
+
+		return DATA;
+	}
+
+	/**
+	 * Classify a value already converted for display.
+	 *
+	 * @param value
+	 *            display value
+	 * @return variable kind
+	 */
+	public static VariableKind classify(final Object value) {
+		if (value instanceof PyObject)
+			return classify((PyObject) value);
+
+		if (value instanceof AbstractScriptModule)
+			return MODULE;
+
+		return DATA;
+	}
+}
@@ -11,6 +11,7 @@
 package org.eclipse.ease.lang.python.jython.debugger.actions;
 
 import org.eclipse.ease.debugging.ScriptDebugVariable;
+import org.eclipse.ease.lang.python.jython.debugger.VariableKind;
 import org.eclipse.jface.viewers.Viewer;
 
 public class FunctionFilterAction extends ViewFilterAction {
@@ -22,7 +23,7 @@ public class FunctionFilterAction extends ViewFilterAction {
 	 */
 	@Override
 	protected String getPreferenceKey() {
-		return "org.eclipse.ease.ui.show_functions";
+		return VariableKind.FUNCTION.getPreferenceKey();
 	}
 
 	/*
@@ -32,8 +33,10 @@ public class FunctionFilterAction extends ViewFilterAction {
 	 */
 	@Override
 	public boolean select(final Viewer viewer, final Object parentElement, final Object element) {
-		if(element instanceof ScriptDebugVariable) {
-			return getValue();
+		// hidden functions are already dropped when the debug model is built, only handle elements created before the filter changed
+		if (element instanceof ScriptDebugVariable) {
+			if (VariableKind.classify(((ScriptDebugVariable) element).getValue().getValue()) == VariableKind.FUNCTION)
+				return getValue();
 		}
 
 		return true;
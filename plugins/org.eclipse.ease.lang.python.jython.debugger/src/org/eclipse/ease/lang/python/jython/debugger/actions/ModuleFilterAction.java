@@ -11,7 +11,7 @@
 package org.eclipse.ease.lang.python.jython.debugger.actions;
 
 import org.eclipse.ease.debugging.ScriptDebugVariable;
-import org.eclipse.ease.modules.AbstractScriptModule;
+import org.eclipse.ease.lang.python.jython.debugger.VariableKind;
 import org.eclipse.jface.viewers.Viewer;
 
 public class ModuleFilterAction extends ViewFilterAction {
@@ -23,7 +23,7 @@ public class ModuleFilterAction extends ViewFilterAction {
 	 */
 	@Override
 	protected String getPreferenceKey() {
-		return "org.eclipse.ease.ui.show_modules";
+		return VariableKind.MODULE.getPreferenceKey();
 	}
 
 	/*
@@ -33,9 +33,9 @@ public class ModuleFilterAction extends ViewFilterAction {
 	 */
 	@Override
 	public boolean select(final Viewer viewer, final Object parentElement, final Object element) {
+		// hidden modules are already dropped when the debug model is built, only handle elements created before the filter changed
 		if (element instanceof ScriptDebugVariable) {
-			Object value = ((ScriptDebugVariable) element).getValue().getValue();
-			if (value instanceof AbstractScriptModule)
+			if (VariableKind.classify(((ScriptDebugVariable) element).getValue().getValue()) == VariableKind.MODULE)
 				return getValue();
 		}
 
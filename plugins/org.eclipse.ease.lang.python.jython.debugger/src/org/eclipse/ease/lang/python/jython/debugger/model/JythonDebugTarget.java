@@ -12,11 +12,11 @@
 package org.eclipse.ease.lang.python.jython.debugger.model;
 
 import org.eclipse.debug.core.DebugException;
-import org.eclipse.debug.core.DebugPlugin;
 import org.eclipse.debug.core.ILaunch;
 import org.eclipse.debug.core.model.IBreakpoint;
 import org.eclipse.ease.Script;
 import org.eclipse.ease.debugging.ScriptDebugTarget;
+import org.eclipse.ease.lang.python.jython.debugger.BreakpointIndex;
 
 /**
  * ScriptDebugTarget for communication between Eclipse framework and Jython debugger.
@@ -24,7 +24,7 @@ import org.eclipse.ease.debugging.ScriptDebugTarget;
  * @author kloeschmartin
  */
 public class JythonDebugTarget extends ScriptDebugTarget {
-	private static final String pyBreakpointType = JythonDebugModelPresentation.ID;
+	private final BreakpointIndex fBreakpointIndex;
 
 	/**
 	 * Constructor for now only calls super constructor.
@@ -33,9 +33,14 @@ public class JythonDebugTarget extends ScriptDebugTarget {
 	 * @param suspendOnStartup
 	 * @param suspendOnScriptLoad
 	 * @param showDynamicCode
+	 * @param breakpointIndex
+	 *            index to look up script breakpoints
 	 */
-	public JythonDebugTarget(final ILaunch launch, final boolean suspendOnStartup, final boolean suspendOnScriptLoad, boolean showDynamicCode) {
+	public JythonDebugTarget(final ILaunch launch, final boolean suspendOnStartup, final boolean suspendOnScriptLoad, boolean showDynamicCode,
+			final BreakpointIndex breakpointIndex) {
 		super(launch, suspendOnStartup, suspendOnScriptLoad, showDynamicCode);
+
+		fBreakpointIndex = breakpointIndex;
 	}
 
 	@Override
@@ -50,11 +55,11 @@ public class JythonDebugTarget extends ScriptDebugTarget {
 	/**
 	 * Getter methods for all matching breakpoints in given script.
 	 *
-	 * Currently EASE Jython Debugger uses PyDev breakpoints, this could change though.
+	 * Currently EASE Jython Debugger uses PyDev breakpoints, this could change though. Breakpoints are looked up in the per resource index.
 	 */
 	@Override
 	protected IBreakpoint[] getBreakpoints(final Script script) {
-		return DebugPlugin.getDefault().getBreakpointManager().getBreakpoints(pyBreakpointType);
+		return fBreakpointIndex.getBreakpoints(script);
 	}
 
 	@Override
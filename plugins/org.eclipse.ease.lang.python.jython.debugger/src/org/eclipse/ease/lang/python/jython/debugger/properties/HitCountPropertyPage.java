@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Martin Kloesch and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Martin Kloesch - initial implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython.debugger.properties;
+
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.debug.core.model.IBreakpoint;
+import org.eclipse.ease.lang.python.jython.debugger.BreakpointInfo;
+import org.eclipse.ease.lang.python.jython.debugger.model.JythonDebugModelPresentation;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.ModifyEvent;
+import org.eclipse.swt.events.ModifyListener;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Text;
+import org.eclipse.ui.dialogs.PropertyPage;
+
+/**
+ * Property page editing the hit count of python breakpoints. Stores the hit count in the {@link BreakpointInfo#ATTRIBUTE_HIT_COUNT} marker attribute.
+ */
+public class HitCountPropertyPage extends PropertyPage {
+
+	private Button fEnabledButton;
+
+	private Text fHitCountText;
+
+	@Override
+	protected Control createContents(final Composite parent) {
+		final Composite composite = new Composite(parent, SWT.NONE);
+		composite.setLayout(new GridLayout(2, false));
+
+		final IMarker marker = getMarker();
+		if (marker == null) {
+			new Label(composite, SWT.NONE).setText("Hit counts are only supported for python breakpoints.");
+			return composite;
+		}
+
+		final int hitCount = marker.getAttribute(BreakpointInfo.ATTRIBUTE_HIT_COUNT, 0);
+
+		fEnabledButton = new Button(composite, SWT.CHECK);
+		fEnabledButton.setText("&Hit count:");
+		fEnabledButton.setSelection(hitCount > 0);
+		fEnabledButton.addSelectionListener(new SelectionAdapter() {
+
+			@Override
+			public void widgetSelected(final SelectionEvent e) {
+				fHitCountText.setEnabled(fEnabledButton.getSelection());
+				validate();
+			}
+		});
+
+		fHitCountText = new Text(composite, SWT.BORDER);
+		fHitCountText.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false));
+		fHitCountText.setText((hitCount > 0) ? Integer.toString(hitCount) : "");
+		fHitCountText.setEnabled(hitCount > 0);
+		fHitCountText.addModifyListener(new ModifyListener() {
+
+			@Override
+			public void modifyText(final ModifyEvent e) {
+				validate();
+			}
+		});
+
+		final Label description = new Label(composite, SWT.WRAP);
+		description.setText("Execution suspends once, when the breakpoint is hit for the given time.");
+		description.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false, 2, 1));
+
+		return composite;
+	}
+
+	@Override
+	public boolean performOk() {
+		final IMarker marker = getMarker();
+		if (marker != null) {
+			try {
+				marker.setAttribute(BreakpointInfo.ATTRIBUTE_HIT_COUNT, getHitCount());
+			} catch (final CoreException e) {
+				setErrorMessage("Could not store hit count: " + e.getMessage());
+				return false;
+			}
+		}
+
+		return super.performOk();
+	}
+
+	private void validate() {
+		if (getHitCount() < 0) {
+			setErrorMessage("Hit count must be a positive integer");
+			setValid(false);
+
+		} else {
+			setErrorMessage(null);
+			setValid(true);
+		}
+	}
+
+	/**
+	 * Get the entered hit count.
+	 *
+	 * @return hit count, 0 when disabled, -1 for invalid input
+	 */
+	private int getHitCount() {
+		if (!fEnabledButton.getSelection())
+			return 0;
+
+		try {
+			final int hitCount = Integer.parseInt(fHitCountText.getText().trim());
+			return (hitCount > 0) ? hitCount : -1;
+		} catch (final NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private IMarker getMarker() {
+		final Object element = getElement();
+		final IBreakpoint breakpoint = (element instanceof IBreakpoint) ? (IBreakpoint) element : (IBreakpoint) getElement().getAdapter(IBreakpoint.class);
+		if ((breakpoint != null) && (JythonDebugModelPresentation.ID.equals(breakpoint.getModelIdentifier())))
+			return breakpoint.getMarker();
+
+		return null;
+	}
+}
@@ -11,14 +11,34 @@
 package org.eclipse.ease.lang.python.jython;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.eclipse.core.runtime.FileLocator;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.ease.lang.python.jython.converter.ConverterRegistry;
+import org.eclipse.ease.lang.python.jython.preferences.IJythonPreferenceConstants;
+import org.eclipse.ease.lang.python.preferences.IPreferenceConstants;
+import org.eclipse.jface.preference.IPreferenceStore;
+import org.eclipse.jface.util.IPropertyChangeListener;
+import org.eclipse.jface.util.PropertyChangeEvent;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -35,6 +55,59 @@ public class Activator extends AbstractUIPlugin {
 	// The shared instance
 	private static Activator plugin;
 
+	/** Signature file name of the java package cache. */
+	private static final String PACKAGE_CACHE_SIGNATURE = "signature.properties";
+
+	/** Root folder of the jython bundle, resolved once. */
+	private static String pluginRootDir = null;
+
+	/** Startup phase: locate the jython standard library. */
+	public static final String TIMING_STDLIB_LOCATION = "stdlib location";
+
+	/** Startup phase: load the registry and initialize the jython runtime. */
+	public static final String TIMING_REGISTRY_LOAD = "registry load";
+
+	/** Startup phase: create and install the package manager. */
+	public static final String TIMING_PACKAGE_MANAGER = "package manager install";
+
+	/** Package manager installed into jython. */
+	private volatile JythonPackageManager mPackageManager = null;
+
+	/** Jython runtime initialization, triggered on activation and run on demand if not started yet. */
+	private FutureTask<Object> mRuntimeInitialization = null;
+
+	/** Duration of startup phases in milliseconds. */
+	private final Map<String, Long> mStartupTimings = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+
+	/** Classes exported by bundles. */
+	private BundleClassIndex mClassIndex = null;
+
+	/** Cache for compiled scripts, created on first use. */
+	private CompiledCodeCache mCodeCache = null;
+
+	/** Pool of pre-created interpreters, created on first use. */
+	private InterpreterPool mInterpreterPool = null;
+
+	/** Python to java converters, created on first use. */
+	private volatile ConverterRegistry mConverterRegistry = null;
+
+	/** Drops pooled interpreters when their setup is outdated. */
+	private final IPropertyChangeListener mPreferenceListener = new IPropertyChangeListener() {
+
+		@Override
+		public void propertyChange(final PropertyChangeEvent event) {
+			final String property = event.getProperty();
+			if ((IPreferenceConstants.PYTHON_LIBRARIES.equals(property)) && (mPackageManager != null))
+				mPackageManager.getLibraryIndex().invalidate();
+
+			if (IPreferenceConstants.PYTHON_LIBRARIES.equals(property) || IJythonPreferenceConstants.INTERPRETER_POOL_SIZE.equals(property)
+					|| IJythonPreferenceConstants.INTERPRETER_POOL_MIN_IDLE.equals(property)
+					|| IJythonPreferenceConstants.INTERPRETER_POOL_IDLE_TIMEOUT.equals(property)
+					|| IJythonPreferenceConstants.PREBOUND_JAVA_PACKAGES.equals(property))
+				disposeInterpreterPool();
+		}
+	};
+
 	/**
 	 * The constructor
 	 */
@@ -46,39 +119,265 @@ public class Activator extends AbstractUIPlugin {
 		super.start(context);
 
 		plugin = this;
-		//		Properties preProperties = System.getProperties();
-		Properties preProperties = PySystemState.getBaseProperties();
 
-		Properties postProperties = new Properties();
+		mClassIndex = new BundleClassIndex(context);
+
+		getPreferenceStore().addPropertyChangeListener(mPreferenceListener);
+
+		// initialize jython in the background, engines wait for it in waitForRuntime()
+		mRuntimeInitialization = new FutureTask<Object>(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				initializeRuntime(context);
+				return null;
+			}
+		});
+
+		final Job job = new Job("Initialize Jython runtime") {
+
+			@Override
+			protected IStatus run(final IProgressMonitor monitor) {
+				mRuntimeInitialization.run();
+				return Status.OK_STATUS;
+			}
+		};
+		job.setSystem(true);
+		job.schedule();
+	}
+
+	private void initializeRuntime(final BundleContext context) {
+		long timestamp = System.nanoTime();
+		final Properties postProperties = new Properties();
 		postProperties.put("python.home", getPluginRootDir());
 		postProperties.put("python.modules.builtin", "errno");
+		timestamp = recordTiming(TIMING_STDLIB_LOCATION, timestamp);
+
+		//		Properties preProperties = System.getProperties();
+		Properties preProperties = PySystemState.getBaseProperties();
 		//		Py.getSystemState().setClassLoader(this.getClass().getClassLoader());
 		PySystemState.initialize(preProperties, postProperties, new String[0]);
-
-		//				PyObject load = org.python.core.imp.
-		//		System.out.println(load);
+		timestamp = recordTiming(TIMING_REGISTRY_LOAD, timestamp);
 
 		// set packageManager AFTER initialization as init will set it, too
-		// FIXME for now caching is disabled. We need to track how the cache destination is calculated
-		PySystemState.packageManager = new JythonPackageManager(null, PySystemState.registry);
+		final JythonPackageManager packageManager = new JythonPackageManager(getPackageCacheFolder(context), PySystemState.registry);
+		packageManager.setClassIndex(mClassIndex);
+		PySystemState.packageManager = packageManager;
+		mPackageManager = packageManager;
+		recordTiming(TIMING_PACKAGE_MANAGER, timestamp);
+
+		if (isDebugging())
+			getLog().log(new Status(IStatus.INFO, PLUGIN_ID, "Jython startup timings [ms]: " + getStartupTimings()));
+	}
+
+	private long recordTiming(final String phase, final long start) {
+		final long now = System.nanoTime();
+		mStartupTimings.put(phase, (now - start) / 1000000);
+		return now;
 	}
 
-	private static String getPluginRootDir() {
+	/**
+	 * Get the duration of jython startup phases. Available once the runtime is initialized.
+	 *
+	 * @return map of phase names to durations in milliseconds
+	 */
+	public Map<String, Long> getStartupTimings() {
+		synchronized (mStartupTimings) {
+			return new LinkedHashMap<String, Long>(mStartupTimings);
+		}
+	}
+
+	/**
+	 * Wait for the jython runtime to be initialized. If the background initialization did not start yet, it is executed in the calling thread.
+	 */
+	public void waitForRuntime() {
+		mRuntimeInitialization.run();
+
 		try {
-			Bundle bundle = Platform.getBundle("org.jython");
-			URL fileURL = FileLocator.find(bundle, new Path("."), null);
-			return FileLocator.toFileURL(fileURL).getFile();
-		} catch (Exception e) {
-			throw new RuntimeException(e);
+			mRuntimeInitialization.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for Jython runtime", e);
+		} catch (final ExecutionException e) {
+			throw new RuntimeException("Could not initialize Jython runtime", e.getCause());
 		}
 	}
 
+	/**
+	 * Get the folder for the persistent java package index. Jython validates cached jars by their timestamps and only re-indexes modified jars. The
+	 * whole index is dropped when the jython bundles or the JVM change.
+	 *
+	 * @param context
+	 *            bundle context
+	 * @return cache folder or <code>null</code> if caching is not possible
+	 */
+	private File getPackageCacheFolder(final BundleContext context) {
+		try {
+			final File cacheFolder = getStateLocation().append("packageCache").toFile();
+
+			final Properties signature = new Properties();
+			signature.setProperty("java.home", System.getProperty("java.home", ""));
+			signature.setProperty("java.version", System.getProperty("java.version", ""));
+			for (final Bundle bundle : new Bundle[] { context.getBundle(), Platform.getBundle("org.jython") }) {
+				if (bundle != null)
+					signature.setProperty(bundle.getSymbolicName(), bundle.getBundleId() + ":" + bundle.getVersion() + ":" + bundle.getLastModified());
+			}
+
+			final File signatureFile = new File(cacheFolder, PACKAGE_CACHE_SIGNATURE);
+			final Properties storedSignature = new Properties();
+			if (signatureFile.exists()) {
+				final FileInputStream input = new FileInputStream(signatureFile);
+				try {
+					storedSignature.load(input);
+				} finally {
+					input.close();
+				}
+			}
+
+			if (!signature.equals(storedSignature)) {
+				// outdated index, start from scratch
+				final File[] files = cacheFolder.listFiles();
+				if (files != null) {
+					for (final File file : files)
+						file.delete();
+				}
+
+				cacheFolder.mkdirs();
+				final FileOutputStream output = new FileOutputStream(signatureFile);
+				try {
+					signature.store(output, "Jython package cache signature");
+				} finally {
+					output.close();
+				}
+			}
+
+			return cacheFolder;
+
+		} catch (final IOException e) {
+			// run without cache
+			return null;
+		}
+	}
+
+	private static synchronized String getPluginRootDir() {
+		if (pluginRootDir == null) {
+			try {
+				Bundle bundle = Platform.getBundle("org.jython");
+				URL fileURL = FileLocator.find(bundle, new Path("."), null);
+				pluginRootDir = FileLocator.toFileURL(fileURL).getFile();
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		return pluginRootDir;
+	}
+
 	public static Activator getDefault() {
 		return plugin;
 	}
 
+	/**
+	 * Get the shared cache for compiled scripts. Cache size and persistence are read from the preferences on first access.
+	 *
+	 * @return compiled code cache
+	 */
+	public synchronized CompiledCodeCache getCodeCache() {
+		if (mCodeCache == null) {
+			final IPreferenceStore preferences = getPreferenceStore();
+			final File cacheFolder = (preferences.getBoolean(IJythonPreferenceConstants.CODE_CACHE_PERSISTENT)) ? getStateLocation().append("codeCache")
+					.toFile() : null;
+
+			mCodeCache = new CompiledCodeCache(preferences.getInt(IJythonPreferenceConstants.CODE_CACHE_SIZE), cacheFolder);
+		}
+
+		return mCodeCache;
+	}
+
+	/**
+	 * Get the shared pool of pre-created interpreters. Pool settings are read from the preferences on first access.
+	 *
+	 * @return interpreter pool
+	 */
+	public synchronized InterpreterPool getInterpreterPool() {
+		if (mInterpreterPool == null) {
+			final IPreferenceStore preferences = getPreferenceStore();
+			mInterpreterPool = new InterpreterPool(preferences.getInt(IJythonPreferenceConstants.INTERPRETER_POOL_SIZE),
+					preferences.getInt(IJythonPreferenceConstants.INTERPRETER_POOL_MIN_IDLE),
+					preferences.getInt(IJythonPreferenceConstants.INTERPRETER_POOL_IDLE_TIMEOUT) * 1000L, getPythonLibraries(), getPreboundJavaPackages());
+		}
+
+		return mInterpreterPool;
+	}
+
+	/**
+	 * Get the shared registry of python to java converters. Contributed converters are loaded on first access.
+	 *
+	 * @return converter registry
+	 */
+	public ConverterRegistry getConverterRegistry() {
+		if (mConverterRegistry == null) {
+			synchronized (this) {
+				if (mConverterRegistry == null) {
+					final ConverterRegistry registry = new ConverterRegistry();
+					registry.loadExtensions();
+					mConverterRegistry = registry;
+				}
+			}
+		}
+
+		return mConverterRegistry;
+	}
+
+	private synchronized void disposeInterpreterPool() {
+		if (mInterpreterPool != null) {
+			mInterpreterPool.dispose();
+			mInterpreterPool = null;
+		}
+	}
+
+	/**
+	 * Get the top level java packages to be imported on engine startup.
+	 *
+	 * @return top level package names
+	 */
+	public Collection<String> getPreboundJavaPackages() {
+		final List<String> result = new ArrayList<String>();
+		for (final String packageName : getPreferenceStore().getString(IJythonPreferenceConstants.PREBOUND_JAVA_PACKAGES).split(";")) {
+			if (!packageName.trim().isEmpty())
+				result.add(packageName.trim());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Get the user defined python library locations.
+	 *
+	 * @return library paths
+	 */
+	public Collection<String> getPythonLibraries() {
+		final List<String> result = new ArrayList<String>();
+		final String libraries = getPreferenceStore().getString(IPreferenceConstants.PYTHON_LIBRARIES);
+		for (final String lib : libraries.split(";"))
+			result.add(lib);
+
+		return result;
+	}
+
 	@Override
 	public void stop(final BundleContext context) throws Exception {
+		if (mClassIndex != null) {
+			if (mPackageManager != null)
+				mPackageManager.setClassIndex(null);
+
+			mClassIndex.dispose();
+			mClassIndex = null;
+		}
+		getPreferenceStore().removePropertyChangeListener(mPreferenceListener);
+		disposeInterpreterPool();
+		mCodeCache = null;
+		mConverterRegistry = null;
 		plugin = null;
 
 		super.stop(context);
@@ -0,0 +1,275 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Christian Pontesegger and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Christian Pontesegger - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWiring;
+
+/**
+ * Index of packages and classes exported by resolved bundles. Allows {@link JythonPackageManager} to distinguish classes from packages without probing
+ * with {@link Class#forName(String)}, which is expensive under <i>Eclipse-BuddyPolicy: global</i>. The index is built in a background job and kept up to
+ * date by listening to bundle events. An attached {@link PackageLookupCache} is invalidated after each index update, so lookups never cache results
+ * based on an outdated index.
+ */
+public class BundleClassIndex implements BundleListener {
+
+	private static final String CLASS_EXTENSION = ".class";
+
+	/** Packages and classes contributed by a single bundle. */
+	private static class BundleContribution {
+		private final Set<String> mPackages = new HashSet<String>();
+		private final Set<String> mClasses = new HashSet<String>();
+	}
+
+	private class BuildJob extends Job {
+
+		public BuildJob() {
+			super("Index bundle classes for Jython");
+
+			setSystem(true);
+		}
+
+		@Override
+		protected IStatus run(final IProgressMonitor monitor) {
+			for (final Bundle bundle : mContext.getBundles()) {
+				if (monitor.isCanceled())
+					return Status.CANCEL_STATUS;
+
+				if ((bundle.getState() & (Bundle.RESOLVED | Bundle.STARTING | Bundle.ACTIVE | Bundle.STOPPING)) != 0)
+					addBundle(bundle);
+			}
+
+			mReady = true;
+			invalidateLookupCache();
+			return Status.OK_STATUS;
+		}
+	}
+
+	private final BundleContext mContext;
+
+	private final Map<Long, BundleContribution> mContributions = new HashMap<Long, BundleContribution>();
+
+	/** Exported packages with a complete class listing, mapped to the amount of contributing bundles. */
+	private final Map<String, Integer> mPackages = new ConcurrentHashMap<String, Integer>();
+
+	/** Parent packages of exported packages, mapped to the amount of exported packages below. */
+	private final Map<String, Integer> mParentPackages = new ConcurrentHashMap<String, Integer>();
+
+	/** Fully qualified class names, mapped to the amount of contributing bundles. */
+	private final Map<String, Integer> mClasses = new ConcurrentHashMap<String, Integer>();
+
+	private final Job mBuildJob = new BuildJob();
+
+	private volatile boolean mReady = false;
+
+	/** Cache of lookups based on this index, may be <code>null</code>. */
+	private volatile PackageLookupCache mLookupCache = null;
+
+	/**
+	 * Constructor. Registers a bundle listener and starts building the index.
+	 *
+	 * @param context
+	 *            bundle context to track
+	 */
+	public BundleClassIndex(final BundleContext context) {
+		mContext = context;
+
+		mContext.addBundleListener(this);
+		mBuildJob.schedule();
+	}
+
+	/**
+	 * Stop tracking bundles.
+	 */
+	public void dispose() {
+		mContext.removeBundleListener(this);
+		mBuildJob.cancel();
+		mReady = false;
+	}
+
+	/**
+	 * Set the cache to invalidate whenever the index changes.
+	 *
+	 * @param lookupCache
+	 *            lookup cache or <code>null</code>
+	 */
+	public void setLookupCache(final PackageLookupCache lookupCache) {
+		mLookupCache = lookupCache;
+	}
+
+	/**
+	 * Check whether the index is available.
+	 *
+	 * @return <code>true</code> when initial indexing is done
+	 */
+	public boolean isReady() {
+		return mReady;
+	}
+
+	/**
+	 * Check whether a name denotes a class exported by a bundle.
+	 *
+	 * @param qualifiedName
+	 *            fully qualified class name
+	 * @return <code>true</code> for exported classes
+	 */
+	public boolean isClass(final String qualifiedName) {
+		return (qualifiedName != null) && (mClasses.containsKey(qualifiedName));
+	}
+
+	/**
+	 * Check whether a name denotes an exported package or a parent of an exported package.
+	 *
+	 * @param qualifiedName
+	 *            package name
+	 * @return <code>true</code> for known packages
+	 */
+	public boolean isPackage(final String qualifiedName) {
+		return (qualifiedName != null) && (mPackages.containsKey(qualifiedName) || mParentPackages.containsKey(qualifiedName));
+	}
+
+	/**
+	 * Check whether all classes of a package are known to the index.
+	 *
+	 * @param packageName
+	 *            package name, may be <code>null</code>
+	 * @return <code>true</code> when the package content is indexed
+	 */
+	public boolean isIndexed(final String packageName) {
+		return (packageName != null) && (mPackages.containsKey(packageName));
+	}
+
+	@Override
+	public void bundleChanged(final BundleEvent event) {
+		switch (event.getType()) {
+		case BundleEvent.RESOLVED:
+			addBundle(event.getBundle());
+			invalidateLookupCache();
+			break;
+		case BundleEvent.UNRESOLVED:
+			removeBundle(event.getBundle());
+			invalidateLookupCache();
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Drop cached lookups once the index is updated. Names might have turned from classes to packages or vice versa, so all results are dropped.
+	 */
+	private void invalidateLookupCache() {
+		final PackageLookupCache lookupCache = mLookupCache;
+		if (lookupCache != null)
+			lookupCache.invalidate();
+	}
+
+	private void addBundle(final Bundle bundle) {
+		// the system bundle exports JRE packages it cannot list
+		if (bundle.getBundleId() == 0)
+			return;
+
+		final BundleWiring wiring = bundle.adapt(BundleWiring.class);
+		if (wiring == null)
+			return;
+
+		final BundleContribution contribution = new BundleContribution();
+		for (final BundleCapability capability : wiring.getCapabilities(BundleRevision.PACKAGE_NAMESPACE)) {
+			final Object packageName = capability.getAttributes().get(BundleRevision.PACKAGE_NAMESPACE);
+			if (!(packageName instanceof String))
+				continue;
+
+			final Collection<String> resources = wiring.listResources("/" + ((String) packageName).replace('.', '/'), "*" + CLASS_EXTENSION,
+					BundleWiring.LISTRESOURCES_LOCAL);
+			if ((resources == null) || (resources.isEmpty()))
+				// without content we cannot tell classes from sub packages
+				continue;
+
+			contribution.mPackages.add((String) packageName);
+			for (final String resource : resources) {
+				final String className = resource.substring(0, resource.length() - CLASS_EXTENSION.length()).replace('/', '.');
+				if (className.indexOf('$') == -1)
+					contribution.mClasses.add(className);
+			}
+		}
+
+		synchronized (mContributions) {
+			final BundleContribution previous = mContributions.put(bundle.getBundleId(), contribution);
+			if (previous != null)
+				unregister(previous);
+
+			for (final String packageName : contribution.mPackages) {
+				increment(mPackages, packageName);
+
+				int pos = packageName.lastIndexOf('.');
+				while (pos > 0) {
+					increment(mParentPackages, packageName.substring(0, pos));
+					pos = packageName.lastIndexOf('.', pos - 1);
+				}
+			}
+
+			for (final String className : contribution.mClasses)
+				increment(mClasses, className);
+		}
+	}
+
+	private void removeBundle(final Bundle bundle) {
+		synchronized (mContributions) {
+			final BundleContribution contribution = mContributions.remove(bundle.getBundleId());
+			if (contribution != null)
+				unregister(contribution);
+		}
+	}
+
+	private void unregister(final BundleContribution contribution) {
+		for (final String packageName : contribution.mPackages) {
+			decrement(mPackages, packageName);
+
+			int pos = packageName.lastIndexOf('.');
+			while (pos > 0) {
+				decrement(mParentPackages, packageName.substring(0, pos));
+				pos = packageName.lastIndexOf('.', pos - 1);
+			}
+		}
+
+		for (final String className : contribution.mClasses)
+			decrement(mClasses, className);
+	}
+
+	private static void increment(final Map<String, Integer> counters, final String key) {
+		final Integer count = counters.get(key);
+		counters.put(key, (count == null) ? 1 : count + 1);
+	}
+
+	private static void decrement(final Map<String, Integer> counters, final String key) {
+		final Integer count = counters.get(key);
+		if ((count == null) || (count <= 1))
+			counters.remove(key);
+		else
+			counters.put(key, count - 1);
+	}
+}
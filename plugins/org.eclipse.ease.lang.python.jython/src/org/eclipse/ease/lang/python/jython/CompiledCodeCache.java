@@ -0,0 +1,381 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Christian Pontesegger and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Christian Pontesegger - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.ease.Logger;
+import org.python.antlr.base.mod;
+import org.python.compiler.Module;
+import org.python.core.BytecodeLoader;
+import org.python.core.CodeFlag;
+import org.python.core.CompileMode;
+import org.python.core.CompilerFlags;
+import org.python.core.ParserFacade;
+import org.python.core.Py;
+import org.python.core.PyCode;
+import org.python.core.PyObject;
+import org.python.core.PySystemState;
+import org.python.core.imp;
+
+/**
+ * Cache for compiled python code. Code objects are stored under a hash of their source code, the file name, the compiler flags used and the jython
+ * version. The cache consists of an in-memory LRU tier and an optional on-disk tier storing the generated $py.class files. The on-disk tier is limited
+ * to {@link #MAX_DISK_ENTRIES} files, least recently used files get deleted first.
+ */
+public class CompiledCodeCache {
+
+	/** Package prefix for generated code classes. */
+	private static final String CLASS_PREFIX = "org.python.pycode._ease_";
+
+	/** Suffix used by jython for compiled module classes. */
+	private static final String CLASS_SUFFIX = "$py";
+
+	/** Jython version and bytecode API version. Bytecode generated by other jython versions must not be loaded. */
+	private static final String COMPILER_SIGNATURE = PySystemState.version + "/" + imp.getAPIVersion();
+
+	/** Maximum amount of class files kept on disk. */
+	private static final int MAX_DISK_ENTRIES = 1000;
+
+	/** Amount of stored class files after which the on-disk tier gets trimmed. */
+	private static final int TRIM_INTERVAL = 100;
+
+	private final Map<String, PyCode> mMemoryCache;
+
+	private final File mCacheFolder;
+
+	private final AtomicLong mMemoryHits = new AtomicLong();
+
+	private final AtomicLong mDiskHits = new AtomicLong();
+
+	private final AtomicLong mMisses = new AtomicLong();
+
+	private final AtomicInteger mStoresSinceTrim = new AtomicInteger();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxEntries
+	 *            maximum amount of code objects kept in memory
+	 * @param cacheFolder
+	 *            folder to store compiled classes to or <code>null</code> to disable the on-disk tier
+	 */
+	public CompiledCodeCache(final int maxEntries, final File cacheFolder) {
+		mMemoryCache = new LinkedHashMap<String, PyCode>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 3592866357734196253L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, PyCode> eldest) {
+				return size() > maxEntries;
+			}
+		};
+
+		if ((cacheFolder != null) && (cacheFolder.isDirectory() || cacheFolder.mkdirs()))
+			mCacheFolder = cacheFolder;
+		else
+			mCacheFolder = null;
+
+		trimDiskCache();
+	}
+
+	/**
+	 * Compile source code the same way {@link Py#compile_command_flags(String, String, CompileMode, CompilerFlags, boolean)} does in exec mode with
+	 * standard prompt enabled. Cached results are returned when available.
+	 *
+	 * @param source
+	 *            python source code
+	 * @param filename
+	 *            file name to be stored in the code object
+	 * @param flags
+	 *            compiler flags
+	 * @return compiled code or {@link Py#None} when the source is incomplete
+	 */
+	public PyObject compile(final String source, final String filename, final CompilerFlags flags) {
+		final String key = getKey(source, filename, flags);
+
+		PyCode code;
+		synchronized (mMemoryCache) {
+			code = mMemoryCache.get(key);
+		}
+		if (code != null) {
+			mMemoryHits.incrementAndGet();
+			return code;
+		}
+
+		code = loadFromDisk(key, filename);
+		if (code != null) {
+			mDiskHits.incrementAndGet();
+			putInMemory(key, code);
+			return code;
+		}
+
+		mMisses.incrementAndGet();
+
+		final mod node = ParserFacade.partialParse(source + "\n", CompileMode.exec, filename, flags, true);
+		if (node == null)
+			// incomplete input, do not cache
+			return Py.None;
+
+		final byte[] bytecode;
+		try {
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			Module.compile(node, output, getClassName(key), filename, true, true, flags);
+			bytecode = output.toByteArray();
+		} catch (final Throwable t) {
+			throw ParserFacade.fixParseError(null, t, filename);
+		}
+
+		code = BytecodeLoader.makeCode(getClassName(key) + CLASS_SUFFIX, bytecode, filename);
+		putInMemory(key, code);
+		storeToDisk(key, bytecode);
+
+		return code;
+	}
+
+	/**
+	 * Get the amount of requests served from memory.
+	 *
+	 * @return memory hits
+	 */
+	public long getMemoryHits() {
+		return mMemoryHits.get();
+	}
+
+	/**
+	 * Get the amount of requests served from the on-disk tier.
+	 *
+	 * @return disk hits
+	 */
+	public long getDiskHits() {
+		return mDiskHits.get();
+	}
+
+	/**
+	 * Get the amount of requests that needed a compilation.
+	 *
+	 * @return cache misses
+	 */
+	public long getMisses() {
+		return mMisses.get();
+	}
+
+	/**
+	 * Get the amount of code objects currently kept in memory.
+	 *
+	 * @return in-memory cache size
+	 */
+	public int getSize() {
+		synchronized (mMemoryCache) {
+			return mMemoryCache.size();
+		}
+	}
+
+	/**
+	 * Drop all cached code objects from memory and disk.
+	 */
+	public void clear() {
+		synchronized (mMemoryCache) {
+			mMemoryCache.clear();
+		}
+
+		if (mCacheFolder != null) {
+			final File[] files = mCacheFolder.listFiles();
+			if (files != null) {
+				for (final File file : files)
+					file.delete();
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "CompiledCodeCache [size=" + getSize() + ", memoryHits=" + getMemoryHits() + ", diskHits=" + getDiskHits() + ", misses=" + getMisses()
+				+ "]";
+	}
+
+	private void putInMemory(final String key, final PyCode code) {
+		synchronized (mMemoryCache) {
+			mMemoryCache.put(key, code);
+		}
+	}
+
+	private PyCode loadFromDisk(final String key, final String filename) {
+		if (mCacheFolder == null)
+			return null;
+
+		final File file = getClassFile(key);
+		if (!file.isFile())
+			return null;
+
+		InputStream input = null;
+		try {
+			input = new FileInputStream(file);
+			final byte[] bytecode = new byte[(int) file.length()];
+			int offset = 0;
+			while (offset < bytecode.length) {
+				final int read = input.read(bytecode, offset, bytecode.length - offset);
+				if (read < 0)
+					throw new IOException("Unexpected end of file: " + file);
+
+				offset += read;
+			}
+
+			// modification time serves as access time for trimming
+			file.setLastModified(System.currentTimeMillis());
+
+			return BytecodeLoader.makeCode(getClassName(key) + CLASS_SUFFIX, bytecode, filename);
+
+		} catch (final Exception e) {
+			// corrupt cache entry, remove and recompile
+			Logger.logWarning("Could not load cached code from " + file + ", recompiling", Activator.PLUGIN_ID);
+			file.delete();
+			return null;
+
+		} finally {
+			if (input != null) {
+				try {
+					input.close();
+				} catch (final IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	private void storeToDisk(final String key, final byte[] bytecode) {
+		if (mCacheFolder == null)
+			return;
+
+		final File file = getClassFile(key);
+		final File tempFile = new File(file.getPath() + ".tmp" + Thread.currentThread().getId());
+
+		OutputStream output = null;
+		try {
+			output = new FileOutputStream(tempFile);
+			output.write(bytecode);
+			output.close();
+			output = null;
+
+			// rename to make the entry visible to other readers atomically
+			if (!tempFile.renameTo(file))
+				tempFile.delete();
+
+			if (mStoresSinceTrim.incrementAndGet() >= TRIM_INTERVAL) {
+				mStoresSinceTrim.set(0);
+				trimDiskCache();
+			}
+
+		} catch (final IOException e) {
+			Logger.logWarning("Could not store compiled code to " + file, Activator.PLUGIN_ID);
+			tempFile.delete();
+
+		} finally {
+			if (output != null) {
+				try {
+					output.close();
+				} catch (final IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	/**
+	 * Delete least recently used class files exceeding {@link #MAX_DISK_ENTRIES}.
+	 */
+	private void trimDiskCache() {
+		if (mCacheFolder == null)
+			return;
+
+		final File[] files = mCacheFolder.listFiles();
+		if ((files == null) || (files.length <= MAX_DISK_ENTRIES))
+			return;
+
+		// newest first
+		final long[] timestamps = new long[files.length];
+		for (int index = 0; index < files.length; index++)
+			timestamps[index] = files[index].lastModified();
+
+		final Integer[] order = new Integer[files.length];
+		for (int index = 0; index < order.length; index++)
+			order[index] = index;
+
+		Arrays.sort(order, new Comparator<Integer>() {
+
+			@Override
+			public int compare(final Integer o1, final Integer o2) {
+				final long t1 = timestamps[o1];
+				final long t2 = timestamps[o2];
+				return (t1 > t2) ? -1 : ((t1 == t2) ? 0 : 1);
+			}
+		});
+
+		for (int index = MAX_DISK_ENTRIES; index < order.length; index++)
+			files[order[index]].delete();
+	}
+
+	private File getClassFile(final String key) {
+		return new File(mCacheFolder, key + CLASS_SUFFIX + ".class");
+	}
+
+	private static String getClassName(final String key) {
+		return CLASS_PREFIX + key;
+	}
+
+	private static String getKey(final String source, final String filename, final CompilerFlags flags) {
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+
+			digest.update(COMPILER_SIGNATURE.getBytes("UTF-8"));
+			digest.update((byte) 0);
+
+			for (final CodeFlag flag : CodeFlag.values()) {
+				if (flags.isFlagSet(flag))
+					digest.update(flag.name().getBytes("UTF-8"));
+			}
+			digest.update((byte) 0);
+			digest.update(String.valueOf(filename).getBytes("UTF-8"));
+			digest.update((byte) 0);
+			digest.update(source.getBytes("UTF-8"));
+
+			final StringBuilder buffer = new StringBuilder();
+			for (final byte b : digest.digest()) {
+				buffer.append(Character.forDigit((b >> 4) & 0x0F, 16));
+				buffer.append(Character.forDigit(b & 0x0F, 16));
+			}
+
+			return buffer.toString();
+
+		} catch (final NoSuchAlgorithmException e) {
+			// SHA-1 is mandatory for every JRE
+			throw new RuntimeException(e);
+		} catch (final UnsupportedEncodingException e) {
+			// UTF-8 is mandatory for every JRE
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,374 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Christian Pontesegger and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Christian Pontesegger - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.python.antlr.PythonTree;
+import org.python.antlr.Visitor;
+import org.python.antlr.ast.ClassDef;
+import org.python.antlr.ast.Expr;
+import org.python.antlr.ast.FunctionDef;
+import org.python.antlr.ast.Global;
+import org.python.antlr.ast.Str;
+import org.python.antlr.base.expr;
+import org.python.antlr.base.mod;
+import org.python.antlr.base.stmt;
+import org.python.core.CompileMode;
+import org.python.core.CompilerFlags;
+import org.python.core.ParserFacade;
+import org.python.core.Py;
+import org.python.core.PyBaseCode;
+import org.python.core.PyFrame;
+import org.python.core.PyObject;
+
+/**
+ * Line coverage collector. Attach to engines using {@link JythonScriptEngine#attachTraceFunction(PyObject)}. Executed lines are recorded per code object
+ * in bit sets. Reachable lines of a code object are derived from the syntax tree of its source file; once all of them were executed the code object is
+ * no longer traced at all.
+ * <p>
+ * A collector may be attached to several engines at once. Each thread records into its own state, so engines do not contend for a shared lock while
+ * tracing. Per thread results are merged when they are read and may get merged into a {@link CoverageStore}.
+ * </p>
+ */
+public class CoverageCollector extends PyObject {
+
+	private static final long serialVersionUID = -1808463306155232541L;
+
+	/** Coverage of a single code object. */
+	private static class CodeCoverage {
+		private final String mFilename;
+		private final BitSet mExecuted = new BitSet();
+		private final BitSet mReachable;
+		private int mMissing;
+
+		public CodeCoverage(final String filename, final BitSet reachable) {
+			mFilename = filename;
+			mReachable = reachable;
+			mMissing = (reachable != null) ? reachable.cardinality() : -1;
+		}
+
+		/**
+		 * Record an executed line.
+		 *
+		 * @return <code>true</code> when all reachable lines are executed
+		 */
+		public boolean execute(final int line) {
+			if (!mExecuted.get(line)) {
+				mExecuted.set(line);
+				if ((mReachable != null) && (mReachable.get(line)))
+					mMissing--;
+			}
+
+			return isComplete();
+		}
+
+		public boolean isComplete() {
+			return mMissing == 0;
+		}
+	}
+
+	/** Coverage records of a single thread. Only locked by its owner thread and by readers merging results. */
+	private static class ThreadCoverage {
+		private final Map<PyBaseCode, CodeCoverage> mCoverage = new IdentityHashMap<PyBaseCode, CodeCoverage>();
+
+		private PyBaseCode mLastCode = null;
+
+		private CodeCoverage mLastCoverage = null;
+
+		public synchronized void clear() {
+			mCoverage.clear();
+			mLastCode = null;
+			mLastCoverage = null;
+		}
+	}
+
+	/**
+	 * Collects statement lines per scope of a python module. Scopes are identified by name and first line, the way code objects report them.
+	 */
+	private static class ReachableLinesVisitor extends Visitor {
+
+		private final Map<String, BitSet> mScopes = new HashMap<String, BitSet>();
+
+		private BitSet mCurrent = new BitSet();
+
+		public ReachableLinesVisitor() {
+			mScopes.put(getKey("<module>", 0), mCurrent);
+			mScopes.put(getKey("<module>", 1), mCurrent);
+		}
+
+		@Override
+		public Object visitFunctionDef(final FunctionDef node) throws Exception {
+			visitScope(node, node.getInternalName(), node.getInternalDecorator_list(), node.getInternalBody());
+			return null;
+		}
+
+		@Override
+		public Object visitClassDef(final ClassDef node) throws Exception {
+			visitScope(node, node.getInternalName(), node.getInternalDecorator_list(), node.getInternalBody());
+			return null;
+		}
+
+		private void visitScope(final stmt node, final String name, final List<expr> decorators, final List<stmt> body) throws Exception {
+			// the definition itself is executed in the enclosing scope
+			mCurrent.set(node.getLineno());
+
+			final BitSet parent = mCurrent;
+			mCurrent = new BitSet();
+			mScopes.put(getKey(name, node.getLineno()), mCurrent);
+			if (decorators != null) {
+				for (final expr decorator : decorators)
+					mScopes.put(getKey(name, decorator.getLineno()), mCurrent);
+			}
+
+			for (int index = 0; index < body.size(); index++) {
+				// docstrings do not create line events
+				if ((index == 0) && (body.get(0) instanceof Expr) && (((Expr) body.get(0)).getInternalValue() instanceof Str))
+					continue;
+
+				body.get(index).accept(this);
+			}
+
+			mCurrent = parent;
+		}
+
+		@Override
+		protected Object unhandled_node(final PythonTree node) throws Exception {
+			if ((node instanceof stmt) && (!(node instanceof Global)))
+				mCurrent.set(node.getLineno());
+
+			return null;
+		}
+
+		public Map<String, BitSet> getScopes() {
+			return mScopes;
+		}
+	}
+
+	/** Marker for files that cannot be analyzed. */
+	private static final Map<String, BitSet> NOT_ANALYZED = Collections.emptyMap();
+
+	/** Coverage records of all threads that ever called this collector. */
+	private final List<ThreadCoverage> mThreadCoverages = new CopyOnWriteArrayList<ThreadCoverage>();
+
+	/** Coverage records of the current thread. */
+	private final ThreadLocal<ThreadCoverage> mThreadCoverage = new ThreadLocal<ThreadCoverage>() {
+		@Override
+		protected ThreadCoverage initialValue() {
+			final ThreadCoverage coverage = new ThreadCoverage();
+			mThreadCoverages.add(coverage);
+			return coverage;
+		}
+	};
+
+	/** Reachable lines per file and scope, {@link #NOT_ANALYZED} for files that cannot be analyzed. */
+	private final ConcurrentHashMap<String, Map<String, BitSet>> mReachableLines = new ConcurrentHashMap<String, Map<String, BitSet>>();
+
+	/** Recorded files need to start with one of these prefixes. Empty to record all files. */
+	private final Collection<String> mIncludes;
+
+	/**
+	 * Constructor recording all executed files.
+	 */
+	public CoverageCollector() {
+		this(new ArrayList<String>());
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param includes
+	 *            path prefixes of files to record, empty to record all files
+	 */
+	public CoverageCollector(final Collection<String> includes) {
+		mIncludes = new ArrayList<String>(includes);
+	}
+
+	@Override
+	public PyObject __call__(final PyObject frame, final PyObject event, final PyObject arg) {
+		if (!(frame instanceof PyFrame))
+			return Py.None;
+
+		final PyFrame pyFrame = (PyFrame) frame;
+		final ThreadCoverage threadCoverage = mThreadCoverage.get();
+
+		// uncontended unless results are read concurrently
+		synchronized (threadCoverage) {
+			final CodeCoverage coverage = getCoverage(threadCoverage, pyFrame.f_code);
+			if ((coverage == null) || (coverage.isComplete()))
+				// nothing (more) to record in this frame
+				return Py.None;
+
+			if ("line".equals(event.toString())) {
+				if (coverage.execute(pyFrame.f_lineno))
+					return Py.None;
+			}
+		}
+
+		return this;
+	}
+
+	private CodeCoverage getCoverage(final ThreadCoverage threadCoverage, final PyBaseCode code) {
+		if (code == threadCoverage.mLastCode)
+			return threadCoverage.mLastCoverage;
+
+		CodeCoverage coverage = threadCoverage.mCoverage.get(code);
+		if ((coverage == null) && (!threadCoverage.mCoverage.containsKey(code))) {
+			if (isIncluded(code.co_filename))
+				coverage = new CodeCoverage(code.co_filename, getReachableLines(code.co_filename).get(getKey(code.co_name, code.co_firstlineno)));
+
+			threadCoverage.mCoverage.put(code, coverage);
+		}
+
+		threadCoverage.mLastCode = code;
+		threadCoverage.mLastCoverage = coverage;
+		return coverage;
+	}
+
+	private boolean isIncluded(final String filename) {
+		if ((filename == null) || (filename.startsWith("<")) || (filename.startsWith("(")))
+			return false;
+
+		if (mIncludes.isEmpty())
+			return true;
+
+		for (final String include : mIncludes) {
+			if (filename.startsWith(include))
+				return true;
+		}
+
+		return false;
+	}
+
+	private Map<String, BitSet> getReachableLines(final String filename) {
+		Map<String, BitSet> scopes = mReachableLines.get(filename);
+		if (scopes == null) {
+			// concurrent threads might analyze the same file, the first result wins
+			final Map<String, BitSet> analyzed = analyze(filename);
+			scopes = (analyzed != null) ? analyzed : NOT_ANALYZED;
+			final Map<String, BitSet> previous = mReachableLines.putIfAbsent(filename, scopes);
+			if (previous != null)
+				scopes = previous;
+		}
+
+		return scopes;
+	}
+
+	/**
+	 * Parse a source file and extract statement lines per scope.
+	 *
+	 * @param filename
+	 *            python source file
+	 * @return reachable lines per scope or <code>null</code> when the file cannot be analyzed
+	 */
+	private static Map<String, BitSet> analyze(final String filename) {
+		final File file = new File(filename);
+		if (!file.isFile())
+			return null;
+
+		try {
+			final InputStream input = new FileInputStream(file);
+			try {
+				final mod node = ParserFacade.parse(input, CompileMode.exec, filename, new CompilerFlags());
+				final ReachableLinesVisitor visitor = new ReachableLinesVisitor();
+				node.accept(visitor);
+				return visitor.getScopes();
+
+			} finally {
+				input.close();
+			}
+		} catch (final Exception e) {
+			// without analysis lines are recorded but tracing never stops early
+			return null;
+		}
+	}
+
+	private static String getKey(final String name, final int line) {
+		return name + "@" + line;
+	}
+
+	/**
+	 * Get executed lines per file, merged over all code objects and threads.
+	 *
+	 * @return executed lines per file
+	 */
+	public Map<String, BitSet> getExecutedLines() {
+		final Map<String, BitSet> result = new HashMap<String, BitSet>();
+		for (final ThreadCoverage threadCoverage : mThreadCoverages) {
+			synchronized (threadCoverage) {
+				for (final CodeCoverage coverage : threadCoverage.mCoverage.values()) {
+					if (coverage != null)
+						getOrCreate(result, coverage.mFilename).or(coverage.mExecuted);
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Get reachable lines per file. Contains all statement lines of analyzed files, including lines of functions that were never called.
+	 *
+	 * @return reachable lines per file
+	 */
+	public Map<String, BitSet> getReachableLines() {
+		final Map<String, BitSet> result = new HashMap<String, BitSet>();
+		for (final ThreadCoverage threadCoverage : mThreadCoverages) {
+			synchronized (threadCoverage) {
+				for (final CodeCoverage coverage : threadCoverage.mCoverage.values()) {
+					if (coverage != null) {
+						final BitSet lines = getOrCreate(result, coverage.mFilename);
+						final Map<String, BitSet> scopes = mReachableLines.get(coverage.mFilename);
+						if (scopes != null) {
+							for (final BitSet scopeLines : scopes.values())
+								lines.or(scopeLines);
+						}
+					}
+				}
+			}
+		}
+
+		return result;
+	}
+
+	private static BitSet getOrCreate(final Map<String, BitSet> map, final String key) {
+		BitSet value = map.get(key);
+		if (value == null) {
+			value = new BitSet();
+			map.put(key, value);
+		}
+
+		return value;
+	}
+
+	/**
+	 * Drop all recorded coverage.
+	 */
+	public void clear() {
+		for (final ThreadCoverage threadCoverage : mThreadCoverages)
+			threadCoverage.clear();
+
+		mReachableLines.clear();
+	}
+}
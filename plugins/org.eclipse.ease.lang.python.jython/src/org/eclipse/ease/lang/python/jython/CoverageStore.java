@@ -0,0 +1,331 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Christian Pontesegger and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Christian Pontesegger - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Persistent line coverage of python files. Coverage of several collectors, engines and runs is merged by OR-ing executed and reachable lines per file.
+ * The store is a properties file with one entry per source file, containing line ranges of executed and reachable lines.
+ */
+public class CoverageStore {
+
+	private static final String SEPARATOR = ";";
+
+	private static final String LOCK_SUFFIX = ".lock";
+
+	/**
+	 * File locks are held by the whole VM, so stores of a single VM must not lock concurrently. Otherwise locking throws an
+	 * {@link java.nio.channels.OverlappingFileLockException}.
+	 */
+	private static final Object VM_LOCK = new Object();
+
+	private final File mFile;
+
+	/** Executed lines per file. */
+	private final Map<String, BitSet> mExecuted = new TreeMap<String, BitSet>();
+
+	/** Reachable lines per file. */
+	private final Map<String, BitSet> mReachable = new TreeMap<String, BitSet>();
+
+	/**
+	 * Constructor. Loads existing coverage data from the given file.
+	 *
+	 * @param file
+	 *            store location
+	 * @throws IOException
+	 *             when an existing store cannot be read
+	 */
+	public CoverageStore(final File file) throws IOException {
+		mFile = file;
+
+		if (mFile.isFile())
+			load();
+	}
+
+	private void load() throws IOException {
+		final Properties properties = new Properties();
+		final InputStream input = new FileInputStream(mFile);
+		try {
+			properties.load(input);
+		} finally {
+			input.close();
+		}
+
+		for (final String filename : properties.stringPropertyNames()) {
+			final String[] tokens = properties.getProperty(filename).split(SEPARATOR, -1);
+			mExecuted.put(filename, parseRanges(tokens[0]));
+			mReachable.put(filename, (tokens.length > 1) ? parseRanges(tokens[1]) : new BitSet());
+		}
+	}
+
+	/**
+	 * Merge coverage of a collector into this store.
+	 *
+	 * @param collector
+	 *            collector to merge
+	 */
+	public synchronized void merge(final CoverageCollector collector) {
+		merge(mExecuted, collector.getExecutedLines());
+		merge(mReachable, collector.getReachableLines());
+	}
+
+	private static void merge(final Map<String, BitSet> target, final Map<String, BitSet> source) {
+		for (final Map.Entry<String, BitSet> entry : source.entrySet()) {
+			final BitSet lines = target.get(entry.getKey());
+			if (lines != null)
+				lines.or(entry.getValue());
+			else
+				target.put(entry.getKey(), (BitSet) entry.getValue().clone());
+		}
+	}
+
+	/**
+	 * Write the store to disk. Coverage written by other processes in the meantime is merged before writing. Reading, merging and writing is done while
+	 * holding a lock on a companion <i>.lock</i> file, so concurrent saves from several processes do not lose coverage. The store is replaced atomically,
+	 * readers never see a partially written file.
+	 *
+	 * @throws IOException
+	 *             when the store cannot be written
+	 */
+	public synchronized void save() throws IOException {
+		final File parent = mFile.getParentFile();
+		if ((parent != null) && (!parent.exists()))
+			parent.mkdirs();
+
+		synchronized (VM_LOCK) {
+			final RandomAccessFile lockFile = new RandomAccessFile(mFile.getPath() + LOCK_SUFFIX, "rw");
+			try {
+				final FileChannel channel = lockFile.getChannel();
+				final FileLock lock = channel.lock();
+				try {
+					if (mFile.isFile()) {
+						final CoverageStore current = new CoverageStore(mFile);
+						merge(mExecuted, current.mExecuted);
+						merge(mReachable, current.mReachable);
+					}
+
+					write();
+
+				} finally {
+					lock.release();
+				}
+			} finally {
+				lockFile.close();
+			}
+		}
+	}
+
+	private void write() throws IOException {
+		final Properties properties = new Properties();
+		for (final Map.Entry<String, BitSet> entry : mExecuted.entrySet()) {
+			final BitSet reachable = mReachable.get(entry.getKey());
+			properties.setProperty(entry.getKey(), toRanges(entry.getValue()) + SEPARATOR + toRanges((reachable != null) ? reachable : new BitSet()));
+		}
+
+		final File tempFile = new File(mFile.getPath() + ".tmp" + Thread.currentThread().getId());
+		try {
+			final OutputStream output = new FileOutputStream(tempFile);
+			try {
+				properties.store(output, "EASE Jython line coverage");
+			} finally {
+				output.close();
+			}
+
+			// rename to make the new content visible to other readers atomically
+			if (!tempFile.renameTo(mFile)) {
+				// some platforms do not replace existing files on rename; we hold the lock so nobody else writes meanwhile
+				if ((!mFile.delete()) || (!tempFile.renameTo(mFile)))
+					throw new IOException("Could not replace coverage store " + mFile);
+			}
+
+		} finally {
+			if (tempFile.exists())
+				tempFile.delete();
+		}
+	}
+
+	/**
+	 * Get stored coverage of a file.
+	 *
+	 * @param filename
+	 *            source file
+	 * @return executed lines, never <code>null</code>
+	 */
+	public synchronized BitSet getExecutedLines(final String filename) {
+		final BitSet lines = mExecuted.get(filename);
+		return (lines != null) ? (BitSet) lines.clone() : new BitSet();
+	}
+
+	/**
+	 * Export coverage in LCOV tracefile format.
+	 *
+	 * @param writer
+	 *            writer to write to, not closed by this method
+	 * @throws IOException
+	 *             when writing fails
+	 */
+	public synchronized void writeLcov(final Writer writer) throws IOException {
+		writer.write("TN:\n");
+
+		for (final Map.Entry<String, BitSet> entry : mExecuted.entrySet()) {
+			final BitSet executed = entry.getValue();
+			final BitSet lines = getAllLines(entry.getKey());
+
+			writer.write("SF:" + entry.getKey() + "\n");
+			for (int line = lines.nextSetBit(1); line >= 0; line = lines.nextSetBit(line + 1))
+				writer.write("DA:" + line + "," + (executed.get(line) ? 1 : 0) + "\n");
+
+			writer.write("LF:" + lines.cardinality() + "\n");
+			writer.write("LH:" + executed.cardinality() + "\n");
+			writer.write("end_of_record\n");
+		}
+
+		writer.flush();
+	}
+
+	/**
+	 * Export coverage in Cobertura XML format. Each source file is reported as a class.
+	 *
+	 * @param writer
+	 *            writer to write to, not closed by this method
+	 * @throws IOException
+	 *             when writing fails
+	 */
+	public synchronized void writeCobertura(final Writer writer) throws IOException {
+		int totalLines = 0;
+		int totalExecuted = 0;
+		final StringBuilder classes = new StringBuilder();
+
+		for (final Map.Entry<String, BitSet> entry : mExecuted.entrySet()) {
+			final BitSet executed = entry.getValue();
+			final BitSet lines = getAllLines(entry.getKey());
+			totalLines += lines.cardinality();
+			totalExecuted += executed.cardinality();
+
+			final String filename = escape(entry.getKey());
+			classes.append("\t\t\t\t<class name=\"").append(filename).append("\" filename=\"").append(filename).append("\" line-rate=\"")
+					.append(getRate(executed.cardinality(), lines.cardinality())).append("\" branch-rate=\"0\" complexity=\"0\">\n");
+			classes.append("\t\t\t\t\t<methods/>\n\t\t\t\t\t<lines>\n");
+			for (int line = lines.nextSetBit(1); line >= 0; line = lines.nextSetBit(line + 1))
+				classes.append("\t\t\t\t\t\t<line number=\"").append(line).append("\" hits=\"").append(executed.get(line) ? 1 : 0).append("\"/>\n");
+
+			classes.append("\t\t\t\t\t</lines>\n\t\t\t\t</class>\n");
+		}
+
+		final String rate = getRate(totalExecuted, totalLines);
+		writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		writer.write("<!DOCTYPE coverage SYSTEM \"http://cobertura.sourceforge.net/xml/coverage-04.dtd\">\n");
+		writer.write("<coverage line-rate=\"" + rate + "\" branch-rate=\"0\" lines-covered=\"" + totalExecuted + "\" lines-valid=\"" + totalLines
+				+ "\" branches-covered=\"0\" branches-valid=\"0\" complexity=\"0\" version=\"1.9\" timestamp=\"" + System.currentTimeMillis() + "\">\n");
+		writer.write("\t<sources/>\n\t<packages>\n");
+		writer.write("\t\t<package name=\"\" line-rate=\"" + rate + "\" branch-rate=\"0\" complexity=\"0\">\n\t\t\t<classes>\n");
+		writer.write(classes.toString());
+		writer.write("\t\t\t</classes>\n\t\t</package>\n\t</packages>\n</coverage>\n");
+
+		writer.flush();
+	}
+
+	/**
+	 * Export coverage to a file. The format is chosen by file extension: <i>.xml</i> creates Cobertura XML, any other extension an LCOV tracefile.
+	 *
+	 * @param file
+	 *            output file
+	 * @throws IOException
+	 *             when writing fails
+	 */
+	public void export(final File file) throws IOException {
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		try {
+			if (file.getName().toLowerCase(Locale.ENGLISH).endsWith(".xml"))
+				writeCobertura(writer);
+			else
+				writeLcov(writer);
+
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Get reachable and executed lines of a file. Executed lines are included as files that could not be analyzed have no reachable lines.
+	 */
+	private BitSet getAllLines(final String filename) {
+		final BitSet lines = getExecutedLines(filename);
+		final BitSet reachable = mReachable.get(filename);
+		if (reachable != null)
+			lines.or(reachable);
+
+		return lines;
+	}
+
+	private static String getRate(final int executed, final int total) {
+		return String.format(Locale.ENGLISH, "%.4f", (total > 0) ? ((double) executed / total) : 1.0);
+	}
+
+	private static String escape(final String text) {
+		return text.replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;").replace(">", "&gt;");
+	}
+
+	private static String toRanges(final BitSet lines) {
+		final StringBuilder buffer = new StringBuilder();
+		int start = lines.nextSetBit(0);
+		while (start >= 0) {
+			final int end = lines.nextClearBit(start) - 1;
+			if (buffer.length() > 0)
+				buffer.append(',');
+
+			buffer.append(start);
+			if (end > start)
+				buffer.append('-').append(end);
+
+			start = lines.nextSetBit(end + 1);
+		}
+
+		return buffer.toString();
+	}
+
+	private static BitSet parseRanges(final String ranges) {
+		final BitSet lines = new BitSet();
+		for (final String range : ranges.split(",")) {
+			if (range.isEmpty())
+				continue;
+
+			final int separator = range.indexOf('-');
+			try {
+				if (separator > 0)
+					lines.set(Integer.parseInt(range.substring(0, separator)), Integer.parseInt(range.substring(separator + 1)) + 1);
+				else
+					lines.set(Integer.parseInt(range));
+			} catch (final NumberFormatException e) {
+				// ignore corrupt entries
+			}
+		}
+
+		return lines;
+	}
+}
@@ -0,0 +1,240 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Christian Pontesegger and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Christian Pontesegger - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython;
+
+import java.util.Collection;
+import java.util.LinkedList;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.ease.Logger;
+import org.python.core.PyList;
+import org.python.core.PyString;
+import org.python.core.PySystemState;
+import org.python.util.InteractiveInterpreter;
+
+/**
+ * Pool of pre-created interpreters. Interpreters are created and bootstrapped (library paths, pre-bound java packages) in a background job and handed out
+ * to starting engines. Interpreters are never returned to the pool as executed scripts leave their state behind.
+ * <p>
+ * Refill policy: the pool is filled up to <i>maxSize</i> on creation. Whenever {@link #acquire()} drops the amount of idle interpreters below
+ * <i>minIdle</i> the pool is refilled up to <i>maxSize</i> again. Interpreters waiting longer than <i>idleTimeout</i> are evicted until the pool shrank
+ * to <i>minIdle</i>. Interpreters within <i>minIdle</i> are kept however old they are, so an idle workbench does not recreate interpreters over and
+ * over.
+ * </p>
+ */
+public class InterpreterPool {
+
+	private static class PoolEntry {
+		private final InteractiveInterpreter mInterpreter;
+		private final long mCreationTime;
+
+		public PoolEntry(final InteractiveInterpreter interpreter) {
+			mInterpreter = interpreter;
+			mCreationTime = System.currentTimeMillis();
+		}
+	}
+
+	private class RefillJob extends Job {
+
+		public RefillJob() {
+			super("Prepare Jython interpreters");
+
+			setSystem(true);
+		}
+
+		@Override
+		protected IStatus run(final IProgressMonitor monitor) {
+			while (!monitor.isCanceled() && (getIdleCount() < mMaxSize)) {
+				try {
+					final InteractiveInterpreter interpreter = createInterpreter();
+					synchronized (mIdleEntries) {
+						mIdleEntries.add(new PoolEntry(interpreter));
+					}
+				} catch (final Exception e) {
+					Logger.logError("Could not prepare Jython interpreter", Activator.PLUGIN_ID);
+					return Status.CANCEL_STATUS;
+				}
+			}
+
+			if (!monitor.isCanceled())
+				scheduleEviction();
+
+			return Status.OK_STATUS;
+		}
+	}
+
+	private class EvictJob extends Job {
+
+		public EvictJob() {
+			super("Evict idle Jython interpreters");
+
+			setSystem(true);
+		}
+
+		@Override
+		protected IStatus run(final IProgressMonitor monitor) {
+			if (!monitor.isCanceled())
+				// wake up again while interpreters above the low water mark remain
+				scheduleEviction(evict());
+
+			return Status.OK_STATUS;
+		}
+	}
+
+	private final LinkedList<PoolEntry> mIdleEntries = new LinkedList<PoolEntry>();
+
+	private final int mMaxSize;
+
+	private final int mMinIdle;
+
+	private final long mIdleTimeout;
+
+	private final Collection<String> mLibraries;
+
+	/** Python code executed on every pooled interpreter. */
+	private final String mBootstrapCode;
+
+	private final Job mRefillJob = new RefillJob();
+
+	private final Job mEvictJob = new EvictJob();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxSize
+	 *            maximum amount of idle interpreters, 0 disables pooling
+	 * @param minIdle
+	 *            low water mark triggering a refill, eviction never shrinks the pool below this size
+	 * @param idleTimeout
+	 *            time in milliseconds after which idle interpreters get evicted, 0 disables eviction
+	 * @param libraries
+	 *            library paths to add to sys.path of pooled interpreters
+	 * @param preboundPackages
+	 *            top level java packages to import
+	 */
+	public InterpreterPool(final int maxSize, final int minIdle, final long idleTimeout, final Collection<String> libraries,
+			final Collection<String> preboundPackages) {
+		mMaxSize = Math.max(0, maxSize);
+		mMinIdle = Math.min(Math.max(0, minIdle), mMaxSize);
+		mIdleTimeout = Math.max(0, idleTimeout);
+		mLibraries = libraries;
+
+		final StringBuilder code = new StringBuilder();
+		for (final String packageName : preboundPackages)
+			code.append("import ").append(packageName).append('\n');
+		mBootstrapCode = code.toString();
+
+		if (mMaxSize > 0)
+			mRefillJob.schedule();
+	}
+
+	/**
+	 * Get an interpreter. Returns a pooled instance if available, otherwise an interpreter is created in the calling thread.
+	 *
+	 * @return bootstrapped interpreter
+	 */
+	public InteractiveInterpreter acquire() {
+		PoolEntry entry;
+		synchronized (mIdleEntries) {
+			entry = mIdleEntries.poll();
+		}
+
+		if (getIdleCount() < mMinIdle)
+			refill();
+
+		if (entry != null)
+			return entry.mInterpreter;
+
+		return createInterpreter();
+	}
+
+	/**
+	 * Get the amount of interpreters ready to be handed out.
+	 *
+	 * @return idle interpreters
+	 */
+	public int getIdleCount() {
+		synchronized (mIdleEntries) {
+			return mIdleEntries.size();
+		}
+	}
+
+	/**
+	 * Drop all idle interpreters. Needed when the interpreter setup changed, eg when library paths were modified.
+	 */
+	public void clear() {
+		synchronized (mIdleEntries) {
+			mIdleEntries.clear();
+		}
+	}
+
+	/**
+	 * Stop background refilling and drop idle interpreters.
+	 */
+	public void dispose() {
+		mRefillJob.cancel();
+		mEvictJob.cancel();
+		clear();
+	}
+
+	private void refill() {
+		if ((mMaxSize > 0) && (mRefillJob.getState() != Job.RUNNING))
+			mRefillJob.schedule();
+	}
+
+	private void scheduleEviction() {
+		scheduleEviction(getIdleCount() > mMinIdle);
+	}
+
+	private void scheduleEviction(final boolean needed) {
+		if ((needed) && (mIdleTimeout > 0))
+			mEvictJob.schedule(mIdleTimeout);
+	}
+
+	/**
+	 * Evict stale interpreters, but keep at least <i>minIdle</i> of them. Entries are ordered by creation time, the oldest ones get evicted first.
+	 *
+	 * @return <code>true</code> when more than <i>minIdle</i> interpreters remain
+	 */
+	private boolean evict() {
+		final long now = System.currentTimeMillis();
+		synchronized (mIdleEntries) {
+			while ((mIdleEntries.size() > mMinIdle) && ((now - mIdleEntries.peek().mCreationTime) > mIdleTimeout))
+				mIdleEntries.poll();
+
+			return mIdleEntries.size() > mMinIdle;
+		}
+	}
+
+	private InteractiveInterpreter createInterpreter() {
+		Activator.getDefault().waitForRuntime();
+
+		// every interpreter gets its own sys.path, sys.modules and display hook
+		final InteractiveInterpreter interpreter = new InteractiveInterpreter(null, new PySystemState());
+
+		final PyList systemPath = interpreter.getSystemState().path;
+		for (final String libraryPath : mLibraries) {
+			if ((libraryPath != null) && !libraryPath.isEmpty()) {
+				final PyString element = new PyString(libraryPath);
+				if (!systemPath.contains(element))
+					systemPath.add(0, element);
+			}
+		}
+
+		if (!mBootstrapCode.isEmpty())
+			interpreter.exec(mBootstrapCode);
+
+		return interpreter;
+	}
+}
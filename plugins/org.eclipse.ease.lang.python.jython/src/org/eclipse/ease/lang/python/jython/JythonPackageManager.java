@@ -11,23 +11,136 @@
  *******************************************************************************/
 package org.eclipse.ease.lang.python.jython;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Properties;
 
+import org.eclipse.ease.Logger;
 import org.python.core.packagecache.SysPackageManager;
 
 public class JythonPackageManager extends SysPackageManager {
 
-	private final Map<String, Boolean> mLookupCache = new HashMap<String, Boolean>();
+	/** Index file name used by jython within the cache folder. */
+	private static final String INDEX_FILE = "packages.idx";
+
+	/** Maximum amount of cached lookups per result type. */
+	private static final int LOOKUP_CACHE_SIZE = 4096;
+
+	private final PackageLookupCache mLookupCache = new PackageLookupCache(LOOKUP_CACHE_SIZE);
+
+	private final PythonLibraryIndex mLibraryIndex = new PythonLibraryIndex();
+
+	private volatile BundleClassIndex mClassIndex = null;
+
+	/** Set from within the super constructor, therefore not initialized here. */
+	private File mCacheFolder;
 
 	public JythonPackageManager(final File cachedir, final Properties registry) {
 		super(cachedir, registry);
 	}
 
+	@Override
+	protected boolean useCacheDir(final File cachedir) {
+		// called by the super constructor before the index gets loaded
+		mCacheFolder = cachedir;
+		return super.useCacheDir(cachedir);
+	}
+
+	/**
+	 * Get the cache of package lookups. Use it to invalidate results or to query statistics.
+	 *
+	 * @return lookup cache
+	 */
+	public PackageLookupCache getLookupCache() {
+		return mLookupCache;
+	}
+
+	/**
+	 * Set the index of bundle classes. When available, lookups are answered from the index instead of probing class loaders. The index invalidates
+	 * the lookup cache whenever it changes.
+	 *
+	 * @param classIndex
+	 *            bundle class index or <code>null</code>
+	 */
+	public void setClassIndex(final BundleClassIndex classIndex) {
+		if (mClassIndex != null)
+			mClassIndex.setLookupCache(null);
+
+		mClassIndex = classIndex;
+
+		if (classIndex != null) {
+			classIndex.setLookupCache(mLookupCache);
+			mLookupCache.invalidate();
+		}
+	}
+
+	/**
+	 * Get the index of python modules within the library folders.
+	 *
+	 * @return python library index
+	 */
+	public PythonLibraryIndex getLibraryIndex() {
+		return mLibraryIndex;
+	}
+
+	@Override
+	protected DataInputStream inOpenIndex() throws IOException {
+		if (mCacheFolder == null)
+			return super.inOpenIndex();
+
+		final File indexFile = new File(mCacheFolder, INDEX_FILE);
+		if (!indexFile.exists())
+			return null;
+
+		return readFully(indexFile);
+	}
+
+	@Override
+	protected DataInputStream inOpenCacheFile(final String cachefile) throws IOException {
+		return readFully(new File(cachefile));
+	}
+
+	/**
+	 * Read a cache file with a single bulk channel read. Files are not memory mapped as jython rewrites them on shutdown, which fails for mapped files
+	 * on some platforms.
+	 *
+	 * @param file
+	 *            file to read
+	 * @return stream on file content
+	 * @throws IOException
+	 *             when the file cannot be read
+	 */
+	private static DataInputStream readFully(final File file) throws IOException {
+		try {
+			final FileInputStream input = new FileInputStream(file);
+			try {
+				final FileChannel channel = input.getChannel();
+				final ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+				while (buffer.hasRemaining()) {
+					if (channel.read(buffer) < 0)
+						break;
+				}
+
+				return new DataInputStream(new ByteArrayInputStream(buffer.array(), 0, buffer.position()));
+
+			} finally {
+				input.close();
+			}
+
+		} catch (final IOException e) {
+			// jython silently ignores unreadable cache files
+			Logger.logError("Could not read java package cache " + file + ": " + e.getMessage(), Activator.PLUGIN_ID);
+			throw e;
+		}
+	}
+
 	@Override
 	public boolean packageExists(final String pkg, final String name) {
 
@@ -44,13 +157,28 @@ public class JythonPackageManager extends SysPackageManager {
 		}
 		String qualifiedName = buffer.toString();
 
-		if(isPythonLib(qualifiedName)) {
-			mLookupCache.put(qualifiedName, false);
+		if(isPythonLib(qualifiedName))
 			return false;
-		}
 
-		if(mLookupCache.containsKey(qualifiedName))
-			return mLookupCache.get(qualifiedName);
+		final Boolean cached = mLookupCache.get(qualifiedName);
+		if(cached != null)
+			return cached;
+
+		// ask the bundle index before probing class loaders
+		final BundleClassIndex classIndex = mClassIndex;
+		if((classIndex != null) && (classIndex.isReady())) {
+			if(classIndex.isClass(qualifiedName)) {
+				mLookupCache.put(qualifiedName, false);
+				return false;
+			}
+
+			if(classIndex.isPackage(qualifiedName)) {
+				mLookupCache.put(qualifiedName, true);
+				return true;
+			}
+
+			// unknown names might still be classes of split packages, fragments or non exported content, let the class loader decide
+		}
 
 		// not from python, might be something from java
 		try {
@@ -101,20 +229,8 @@ public class JythonPackageManager extends SysPackageManager {
 		// but "import json" also tries to locate _json, how to deal with that???
 		if((qualifiedName.startsWith("_")) && !(qualifiedName.startsWith("org.jython")))
 			return true;
-		/*
-		 * 
-		 * Code this with 1.6 library
-		 */
-		for(File folder : Activator.getLibraryFolders()) {
-			String path = folder.getPath();
-			File resolvedFolder = new File(path + qualifiedName.replaceAll("\\.", "/"));
-			File resolvedLib = new File(path + qualifiedName.replaceAll("\\.", "/") + ".py");
-			if(resolvedFolder.exists())
-				return true;
-
-			if(resolvedLib.exists())
-				return true;
-		}
+		if(mLibraryIndex.contains(qualifiedName))
+			return true;
 
 		return RESERVED_LIBS.contains(qualifiedName);
 	}
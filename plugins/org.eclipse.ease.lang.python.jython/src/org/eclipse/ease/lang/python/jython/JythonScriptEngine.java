@@ -16,10 +16,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
 import java.util.AbstractMap;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
@@ -28,35 +26,65 @@ import java.util.regex.Pattern;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.ease.AbstractScriptEngine;
 import org.eclipse.ease.Script;
-import org.eclipse.ease.lang.python.preferences.IPreferenceConstants;
+import org.eclipse.ease.lang.python.jython.adapter.JavaIteratorAdapter;
+import org.eclipse.ease.lang.python.jython.adapter.JavaObjectAdapter;
+import org.eclipse.ease.lang.python.jython.converter.ConverterRegistry;
+import org.eclipse.ease.lang.python.jython.preferences.IJythonPreferenceConstants;
 import org.eclipse.ease.tools.RunnableWithResult;
 import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.swt.widgets.Display;
-import org.python.core.CompileMode;
 import org.python.core.CompilerFlags;
 import org.python.core.Py;
-import org.python.core.PyBoolean;
-import org.python.core.PyFloat;
 import org.python.core.PyFunction;
 import org.python.core.PyIgnoreMethodTag;
-import org.python.core.PyInteger;
 import org.python.core.PyJavaPackage;
 import org.python.core.PyJavaType;
 import org.python.core.PyList;
-import org.python.core.PyLong;
-import org.python.core.PyNone;
 import org.python.core.PyObject;
 import org.python.core.PyObjectDerived;
 import org.python.core.PyString;
 import org.python.core.PyStringMap;
+import org.python.core.PySystemState;
+import org.python.core.ThreadState;
 import org.python.util.InteractiveInterpreter;
 
+/**
+ * Script engine executing python code on a Jython interpreter.
+ * <p>
+ * By default scripts are executed without any trace or profile function, as jython takes a slower execution path for every call and line while a
+ * trace function is set. Trace functions are only installed while a profiler, coverage collector or other tracer is attached. Attaching during an
+ * execution takes effect on the next call of a python function.
+ * </p>
+ */
 public class JythonScriptEngine extends AbstractScriptEngine {
 
+	/** Top level java packages available as variables in every engine. */
+	public static final String[] JAVA_ROOT_PACKAGES = new String[] { "java", "org", "com" };
+
+	/** Valid python variable names. */
+	private static final Pattern SAVE_NAME_PATTERN = Pattern.compile("[a-zA-Z_$][a-zA-Z0-9_$]*");
+
+	/** Characters to be replaced when creating variable names. */
+	private static final Pattern INVALID_NAME_CHARACTERS = Pattern.compile("[^a-zA-Z0-9]");
+
 	protected InteractiveInterpreter mEngine;
 
 	private PyObject mResult;
 
+	/** Guards variable access from outside of scripts. Batch operations hold it once for all variables. */
+	private final Object mVariableLock = new Object();
+
+	/** Thread state of the running execution, used for stack sampling. */
+	private volatile ThreadState mExecutionState = null;
+
+	private SamplingProfiler mProfiler = null;
+
+	/** Deterministic profiler, installed as profile function on execution. */
+	private volatile JythonTracer mTracer = null;
+
+	/** Attached trace function, installed on execution. */
+	private volatile PyObject mTraceFunction = null;
+
 	private class DisplayHook extends PyObject {
 
 		private static final long serialVersionUID = -6793040471701923706L;
@@ -84,8 +112,10 @@ public class JythonScriptEngine extends AbstractScriptEngine {
 
 	@Override
 	protected boolean setupEngine() {
-		mEngine = new InteractiveInterpreter();
+		Activator.getDefault().waitForRuntime();
+		mEngine = Activator.getDefault().getInterpreterPool().acquire();
 
+		// each interpreter comes with its own system state, it gets activated per execution in internalExecute()
 		// register display callback method to extract execution result
 		final DisplayHook displayHook = new DisplayHook();
 		getEngine().getSystemState().__displayhook__ = displayHook;
@@ -112,7 +142,11 @@ public class JythonScriptEngine extends AbstractScriptEngine {
 			}
 		}
 
-		getEngine().getSystemState().settrace(new JythonTracer());
+		// bind top level java packages that were not imported by the interpreter pool
+		for (final String packageName : JAVA_ROOT_PACKAGES) {
+			if (getEngine().get(packageName) == null)
+				getEngine().set(packageName, new LazyJavaPackage(packageName));
+		}
 
 		// FIXME ev we need to set the system path to make jython aware of the changes
 		return true;
@@ -120,6 +154,12 @@ public class JythonScriptEngine extends AbstractScriptEngine {
 
 	@Override
 	protected boolean teardownEngine() {
+		stopProfiler();
+
+		// release resources held by the engine specific system state
+		if (getEngine() != null)
+			getEngine().cleanup();
+
 		return true;
 	}
 
@@ -155,61 +195,104 @@ public class JythonScriptEngine extends AbstractScriptEngine {
 			return internalExecute(script, reference, fileName);
 	}
 
+	/**
+	 * Execute a script in the engine thread. The result is converted using {@link #toJava(PyObject)}, so containers are converted at their top level
+	 * only.
+	 *
+	 * @param script
+	 *            script to execute
+	 * @param reference
+	 *            script source reference
+	 * @param fileName
+	 *            file name of the script, may be <code>null</code>
+	 * @return execution result
+	 * @throws Exception
+	 *             when execution fails
+	 */
 	protected Object internalExecute(final Script script, final Object reference, final String fileName) throws Exception {
 		mResult = Py.None;
 
-		final PyObject code = Py.compile_command_flags(script.getCode(), "(none)", CompileMode.exec, new CompilerFlags(), true);
-		if (code == Py.None)
-			throw new RuntimeException("Could not compile code");
-		final Object file = script.getFile();
-		File f = null;
-		if (file instanceof IFile) {
-			f = ((IFile) file).getLocation().toFile();
-		} else if (file instanceof File) {
-			f = ((File) file);
+		// we might get called from a different thread (eg UI thread), restore its system state afterwards
+		final PySystemState previousSystemState = Py.getSystemState();
+		Py.setSystemState(getEngine().getSystemState());
 
-		}
-		PyString newString = null;
-		if (f != null) {
-			final String absolutePath = f.getAbsolutePath();
-			setVariable("__File__", absolutePath);
-			final String containerPart = f.getParent();
-			newString = Py.newString(containerPart);
-			Py.getSystemState().path.insert(0, newString);
-		}
-		Py.exec(code, getEngine().getLocals(), null);
-		if (newString != null) {
-			Py.getSystemState().path.remove(newString);
-		}
-		return toJava(mResult);
-	}
+		try {
+			final Object file = script.getFile();
+			File f = null;
+			if (file instanceof IFile) {
+				f = ((IFile) file).getLocation().toFile();
+			} else if (file instanceof File) {
+				f = ((File) file);
+
+			}
+
+			// code objects carry the source location, used by tracebacks and coverage
+			final String codeFilename = (f != null) ? f.getAbsolutePath() : "(none)";
+			final PyObject code = Activator.getDefault().getCodeCache().compile(script.getCode(), codeFilename, new CompilerFlags());
+			if (code == Py.None)
+				throw new RuntimeException("Could not compile code");
+			PyString newString = null;
+			if (f != null) {
+				final String absolutePath = f.getAbsolutePath();
+				setVariable("__File__", absolutePath);
+				final String containerPart = f.getParent();
+				newString = Py.newString(containerPart);
+				getEngine().getSystemState().path.insert(0, newString);
+			}
 
-	private static Object toJava(final PyObject result) {
-		if (result instanceof PyNone)
-			return null;
+			final ThreadState previousState = mExecutionState;
+			final ThreadState state = Py.getThreadState();
+			mExecutionState = state;
 
-		if (result instanceof PyObjectDerived)
-			return result.__tojava__(Object.class);
+			// only install trace functions when attached, they slow down every call
+			final boolean tracing = isTracing();
+			if (tracing)
+				installTraceFunctions(state);
 
-		if (result instanceof PyBoolean)
-			return ((PyBoolean) result).getBooleanValue();
+			try {
+				Py.exec(code, getEngine().getLocals(), null);
+			} finally {
+				if ((previousState == null) && ((tracing) || (isTracing())))
+					removeTraceFunctions(state);
 
-		if (result instanceof PyInteger)
-			return ((PyInteger) result).getValue();
+				mExecutionState = previousState;
 
-		if (result instanceof PyFloat)
-			return ((PyFloat) result).getValue();
+				if (newString != null)
+					getEngine().getSystemState().path.remove(newString);
+			}
 
-		if (result instanceof PyLong)
-			return ((PyLong) result).getValue();
+		} finally {
+			Py.setSystemState(previousSystemState);
+		}
 
-		if (result instanceof PyString)
-			return ((PyString) result).getString();
+		return toJava(mResult);
+	}
 
-		if (result instanceof PyInteger)
-			return ((PyInteger) result).getValue();
+	/**
+	 * Convert a python object to its java representation. Only the top level container is converted, nested elements keep their python representation
+	 * unless they have a direct java counterpart. Use {@link #toJava(PyObject, boolean)} to convert nested containers as well. Objects without java
+	 * counterpart are returned unmodified.
+	 *
+	 * @param result
+	 *            python object
+	 * @return java object or python object
+	 */
+	public static Object toJava(final PyObject result) {
+		return toJava(result, false);
+	}
 
-		return result;
+	/**
+	 * Convert a python object to its java representation using the converters of the {@link ConverterRegistry}. Objects without java counterpart are
+	 * returned unmodified.
+	 *
+	 * @param result
+	 *            python object
+	 * @param deep
+	 *            convert nested containers as well. Otherwise only the top level container is converted
+	 * @return java object or python object
+	 */
+	public static Object toJava(final PyObject result, final boolean deep) {
+		return Activator.getDefault().getConverterRegistry().toJava(result, deep);
 	}
 
 	@Override
@@ -236,15 +319,174 @@ public class JythonScriptEngine extends AbstractScriptEngine {
 			getEngine().setErr(getErrorStream());
 	}
 
-	protected Collection<String> getPythonLibraries() {
-		final List<String> result = new ArrayList<String>();
-		final IPreferenceStore preferences = Activator.getDefault().getPreferenceStore();
-		final String libraries = preferences.getString(IPreferenceConstants.PYTHON_LIBRARIES);
-		final String[] libs = libraries.split(";");
-		for (final String lib : libs) {
-			result.add(lib);
+	/**
+	 * Start the sampling profiler for this engine using the sampling interval and memory budget from the preferences.
+	 *
+	 * @return profiler collecting samples
+	 */
+	public SamplingProfiler startProfiler() {
+		final IPreferenceStore store = Activator.getDefault().getPreferenceStore();
+		return startProfiler(store.getInt(IJythonPreferenceConstants.PROFILER_SAMPLING_INTERVAL),
+				store.getInt(IJythonPreferenceConstants.PROFILER_MAX_STACKS));
+	}
+
+	/**
+	 * Start the sampling profiler for this engine. A running profiler is stopped and replaced.
+	 *
+	 * @param interval
+	 *            sampling interval in milliseconds
+	 * @param maxStacks
+	 *            maximum amount of distinct stacks to record
+	 * @return profiler collecting samples
+	 */
+	public synchronized SamplingProfiler startProfiler(final int interval, final int maxStacks) {
+		stopProfiler();
+
+		mProfiler = new SamplingProfiler(interval, maxStacks);
+		mProfiler.addEngine(this);
+		mProfiler.start();
+
+		return mProfiler;
+	}
+
+	/**
+	 * Stop the sampling profiler. The returned profiler provides the recorded samples, eg to write a flame graph input file.
+	 *
+	 * @return stopped profiler or <code>null</code> when no profiler was running
+	 */
+	public synchronized SamplingProfiler stopProfiler() {
+		final SamplingProfiler profiler = mProfiler;
+		if (profiler != null) {
+			profiler.stop();
+			profiler.removeEngine(this);
+			mProfiler = null;
+		}
+
+		return profiler;
+	}
+
+	/**
+	 * Enable the deterministic profiler. The profiler gets installed on the running and all subsequent executions until
+	 * {@link #stopDeterministicProfiler()} is called.
+	 *
+	 * @return profiler recording function statistics
+	 */
+	public JythonTracer startDeterministicProfiler() {
+		if (mTracer == null) {
+			mTracer = new JythonTracer();
+			updateTraceFunctions();
+		}
+
+		return mTracer;
+	}
+
+	/**
+	 * Disable the deterministic profiler. Subsequent executions run without profile function.
+	 *
+	 * @return profiler with recorded statistics or <code>null</code> when no profiler was active
+	 */
+	public JythonTracer stopDeterministicProfiler() {
+		final JythonTracer tracer = mTracer;
+		mTracer = null;
+		updateTraceFunctions();
+
+		return tracer;
+	}
+
+	/**
+	 * Attach a trace function with <code>sys.settrace()</code> semantics. Replaces a previously attached trace function. Trace functions are called
+	 * from the execution thread and must not execute python code.
+	 *
+	 * @param traceFunction
+	 *            callable accepting (frame, event, arg)
+	 */
+	public void attachTraceFunction(final PyObject traceFunction) {
+		mTraceFunction = traceFunction;
+		updateTraceFunctions();
+	}
+
+	/**
+	 * Detach a trace function. Does nothing when the given function is not attached.
+	 *
+	 * @param traceFunction
+	 *            trace function to detach
+	 */
+	public void detachTraceFunction(final PyObject traceFunction) {
+		if (mTraceFunction == traceFunction) {
+			mTraceFunction = null;
+			updateTraceFunctions();
 		}
-		return result;
+	}
+
+	/**
+	 * Start collecting line coverage. Uses the trace function slot of this engine, replacing any other attached trace function.
+	 *
+	 * @return collector recording executed lines
+	 */
+	public CoverageCollector startCoverage() {
+		final CoverageCollector collector = new CoverageCollector();
+		attachTraceFunction(collector);
+
+		return collector;
+	}
+
+	/**
+	 * Stop collecting line coverage. Merge the returned collector into a {@link CoverageStore} to persist results.
+	 *
+	 * @return collector with recorded coverage or <code>null</code> when coverage was not collected
+	 */
+	public CoverageCollector stopCoverage() {
+		final PyObject traceFunction = mTraceFunction;
+		if (traceFunction instanceof CoverageCollector) {
+			detachTraceFunction(traceFunction);
+			return (CoverageCollector) traceFunction;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Check whether any trace or profile function is attached.
+	 *
+	 * @return <code>false</code> when scripts run without tracing
+	 */
+	public boolean isTracing() {
+		return (mTraceFunction != null) || (mTracer != null);
+	}
+
+	/**
+	 * Apply attached trace functions to a running execution.
+	 */
+	private void updateTraceFunctions() {
+		final ThreadState state = mExecutionState;
+		if (state != null)
+			installTraceFunctions(state);
+	}
+
+	private void installTraceFunctions(final ThreadState state) {
+		final PyObject traceFunction = mTraceFunction;
+		state.tracefunc = (traceFunction != null) ? new TraceFunctionAdapter(traceFunction) : null;
+
+		final JythonTracer tracer = mTracer;
+		state.profilefunc = (tracer != null) ? new TraceFunctionAdapter(tracer) : null;
+	}
+
+	private static void removeTraceFunctions(final ThreadState state) {
+		state.tracefunc = null;
+		state.profilefunc = null;
+	}
+
+	/**
+	 * Get the thread state of the currently running execution.
+	 *
+	 * @return thread state or <code>null</code> when idle
+	 */
+	ThreadState getExecutionState() {
+		return mExecutionState;
+	}
+
+	protected Collection<String> getPythonLibraries() {
+		return Activator.getDefault().getPythonLibraries();
 	}
 
 	@Override
@@ -258,7 +500,7 @@ public class JythonScriptEngine extends AbstractScriptEngine {
 			return identifier;
 
 		// not valid, convert string to valid format
-		final StringBuilder buffer = new StringBuilder(identifier.replaceAll("[^a-zA-Z0-9]", "_"));
+		final StringBuilder buffer = new StringBuilder(INVALID_NAME_CHARACTERS.matcher(identifier).replaceAll("_"));
 
 		// check for valid first character
 		if (buffer.length() > 0) {
@@ -276,7 +518,7 @@ public class JythonScriptEngine extends AbstractScriptEngine {
 	}
 
 	public static boolean isSaveName(final String identifier) {
-		return Pattern.matches("[a-zA-Z_$][a-zA-Z0-9_$]*", identifier);
+		return SAVE_NAME_PATTERN.matcher(identifier).matches();
 	}
 
 	@Override
@@ -291,10 +533,18 @@ public class JythonScriptEngine extends AbstractScriptEngine {
 
 	@Override
 	protected Object internalGetVariable(final String name) {
-		Object value = getEngine().get(name);
-		if (value instanceof PyObjectDerived)
-			// unpack wrapped java objects
-			value = ((PyObjectDerived) value).__tojava__(Object.class);
+		synchronized (mVariableLock) {
+			final PyObject value = getStartedEngine().get(name);
+			return (value != null) ? unwrap(value) : null;
+		}
+	}
+
+	/**
+	 * Unpack wrapped java objects. Other python objects are returned unmodified.
+	 */
+	private static Object unwrap(final PyObject value) {
+		if ((value instanceof PyObjectDerived) || (value instanceof JavaObjectAdapter) || (value instanceof JavaIteratorAdapter))
+			return value.__tojava__(Object.class);
 
 		return value;
 	}
@@ -303,12 +553,15 @@ public class JythonScriptEngine extends AbstractScriptEngine {
 	protected Map<String, Object> internalGetVariables() {
 		final HashMap<String, Object> variables = new HashMap<String, Object>();
 
-		final PyObject locals = getEngine().getLocals();
-		final PyList keys = ((PyStringMap) locals).keys();
-		for (final Object key : keys) {
-			final Object value = internalGetVariable(key.toString());
-			if ((!(value instanceof PyFunction)) && (!(value instanceof PyJavaPackage)) && (!(value instanceof PyJavaType)))
-				variables.put(key.toString(), internalGetVariable(key.toString()));
+		synchronized (mVariableLock) {
+			final PyObject locals = getStartedEngine().getLocals();
+			final PyList keys = ((PyStringMap) locals).keys();
+			for (final Object key : keys) {
+				final Object value = internalGetVariable(key.toString());
+				if ((!(value instanceof PyFunction)) && (!(value instanceof PyJavaPackage)) && (!(value instanceof LazyJavaPackage))
+						&& (!(value instanceof PyJavaType)))
+					variables.put(key.toString(), value);
+			}
 		}
 
 		return variables;
@@ -316,7 +569,9 @@ public class JythonScriptEngine extends AbstractScriptEngine {
 
 	@Override
 	protected boolean internalHasVariable(final String name) {
-		return getEngine().get(name) != null;
+		synchronized (mVariableLock) {
+			return getStartedEngine().get(name) != null;
+		}
 	}
 
 	@Override
@@ -324,8 +579,75 @@ public class JythonScriptEngine extends AbstractScriptEngine {
 		if (!isSaveName(name))
 			throw new RuntimeException("\"" + name + "\" is not a valid Python variable name");
 
-		getEngine().set(name, content);
+		synchronized (mVariableLock) {
+			// collections are wrapped in python views, so scripts do not need reflective access
+			getStartedEngine().set(name, JavaObjectAdapter.adapt(content));
+		}
+	}
+
+	/**
+	 * Set multiple variables at once. All names are validated before any variable is set, so either all or none of the variables get set. Variables
+	 * are set using {@link #setVariable(String, Object)} while holding the variable lock once for the whole batch, so other variable accesses of this
+	 * engine observe either none or all of the changes.
+	 *
+	 * @param variables
+	 *            map of variable names to values
+	 * @throws RuntimeException
+	 *             when a name is not a valid python variable name or the engine is not started yet
+	 */
+	public void setVariables(final Map<String, ?> variables) {
+		for (final String name : variables.keySet()) {
+			if (!isSaveName(name))
+				throw new RuntimeException("\"" + name + "\" is not a valid Python variable name");
+		}
+
+		synchronized (mVariableLock) {
+			getStartedEngine();
+
+			for (final Entry<String, ?> entry : variables.entrySet())
+				setVariable(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Get multiple variables at once. Only the requested variables are looked up and converted. Variables are read using
+	 * {@link #getVariable(String)} while holding the variable lock once for the whole batch, so the result is consistent with respect to other variable
+	 * accesses of this engine.
+	 *
+	 * @param names
+	 *            variable names to look up
+	 * @return map of variable names to values. Variables that do not exist are not contained
+	 * @throws RuntimeException
+	 *             when the engine is not started yet
+	 */
+	public Map<String, Object> getVariables(final Collection<String> names) {
+		final Map<String, Object> variables = new HashMap<String, Object>();
+
+		synchronized (mVariableLock) {
+			getStartedEngine();
+
+			for (final String name : names) {
+				if (hasVariable(name))
+					variables.put(name, getVariable(name));
+			}
+		}
+
+		return variables;
+	}
 
+	/**
+	 * Get the interpreter, which is only available once the engine got started.
+	 *
+	 * @return interpreter
+	 * @throws RuntimeException
+	 *             when the engine is not started yet
+	 */
+	private InteractiveInterpreter getStartedEngine() {
+		final InteractiveInterpreter engine = getEngine();
+		if (engine == null)
+			throw new RuntimeException("Jython engine is not started yet, variables cannot be accessed");
+
+		return engine;
 	}
 
 	@Override
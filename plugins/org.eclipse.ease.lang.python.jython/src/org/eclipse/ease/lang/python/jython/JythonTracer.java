@@ -10,19 +10,494 @@
  *******************************************************************************/
 package org.eclipse.ease.lang.python.jython;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.python.core.Py;
+import org.python.core.PyBaseCode;
+import org.python.core.PyFrame;
 import org.python.core.PyObject;
 
+/**
+ * Deterministic profiler. Installed as python profile function it records call counts, inclusive and exclusive wall time and CPU time per python
+ * function. Statistics are accumulated in primitive arrays indexed by code object, so recording a call does not allocate.
+ * <p>
+ * A tracer may be attached to several engines at once. Call stacks are kept per thread, statistics of all threads are accumulated.
+ * </p>
+ * <p>
+ * Results are available as sortable report and in the marshal format read by python's <i>pstats</i> module. Caller information is not recorded.
+ * </p>
+ */
 public class JythonTracer extends PyObject {
 
+	private static final long serialVersionUID = 4637391858421962342L;
+
+	/** Sort order for profiler reports. */
+	public enum SortKey {
+		/** Amount of calls. */
+		CALLS,
+		/** Time spent in the function itself. */
+		TOTAL_TIME,
+		/** Time spent in the function including sub calls. */
+		CUMULATIVE_TIME,
+		/** CPU time spent in the function including sub calls. */
+		CPU_TIME,
+		/** Function location. */
+		NAME
+	}
+
+	/** Statistics of a single python function. Times are in nanoseconds. */
+	public static class FunctionStatistics {
+		private final String mFilename;
+		private final int mLine;
+		private final String mName;
+		private final long mCalls;
+		private final long mPrimitiveCalls;
+		private final long mTotalTime;
+		private final long mCumulativeTime;
+		private final long mCpuTime;
+
+		private FunctionStatistics(final String filename, final int line, final String name, final long calls, final long primitiveCalls,
+				final long totalTime, final long cumulativeTime, final long cpuTime) {
+			mFilename = filename;
+			mLine = line;
+			mName = name;
+			mCalls = calls;
+			mPrimitiveCalls = primitiveCalls;
+			mTotalTime = totalTime;
+			mCumulativeTime = cumulativeTime;
+			mCpuTime = cpuTime;
+		}
+
+		public String getFilename() {
+			return mFilename;
+		}
+
+		public int getLine() {
+			return mLine;
+		}
+
+		public String getName() {
+			return mName;
+		}
+
+		public long getCalls() {
+			return mCalls;
+		}
+
+		/**
+		 * Get the amount of calls not induced by recursion.
+		 */
+		public long getPrimitiveCalls() {
+			return mPrimitiveCalls;
+		}
+
+		/**
+		 * Get the wall time spent in the function excluding sub calls.
+		 */
+		public long getTotalTime() {
+			return mTotalTime;
+		}
+
+		/**
+		 * Get the wall time spent in the function including sub calls.
+		 */
+		public long getCumulativeTime() {
+			return mCumulativeTime;
+		}
+
+		/**
+		 * Get the CPU time spent in the function including sub calls. 0 when CPU time measurement is not supported.
+		 */
+		public long getCpuTime() {
+			return mCpuTime;
+		}
+	}
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
+	/** Call stack of a single thread. Only accessed by its owner thread. */
+	private static class CallStack {
+		private PyFrame[] mFrames = new PyFrame[INITIAL_CAPACITY];
+		private int[] mCode = new int[INITIAL_CAPACITY];
+		private long[] mStart = new long[INITIAL_CAPACITY];
+		private long[] mCpuStart = new long[INITIAL_CAPACITY];
+		private long[] mChildTime = new long[INITIAL_CAPACITY];
+		private int mDepth = 0;
+
+		/** Active invocations per code object, used to detect recursion. */
+		private int[] mActive = new int[INITIAL_CAPACITY];
+
+		/** Tracer generation this stack was recorded for. Stacks of older generations refer to dropped code indices. */
+		private int mGeneration;
+
+		public void reset(final int generation) {
+			Arrays.fill(mFrames, 0, mDepth, null);
+			Arrays.fill(mActive, 0);
+			mDepth = 0;
+			mGeneration = generation;
+		}
+	}
+
+	/** Index of code objects within accumulator arrays. */
+	private final Map<PyBaseCode, Integer> mCodeIndex = new IdentityHashMap<PyBaseCode, Integer>();
+
+	private PyBaseCode[] mCodes = new PyBaseCode[INITIAL_CAPACITY];
+
+	// accumulators per code object
+	private long[] mCalls = new long[INITIAL_CAPACITY];
+	private long[] mPrimitiveCalls = new long[INITIAL_CAPACITY];
+	private long[] mTotalTime = new long[INITIAL_CAPACITY];
+	private long[] mCumulativeTime = new long[INITIAL_CAPACITY];
+	private long[] mCpuTime = new long[INITIAL_CAPACITY];
+
+	/** Incremented by {@link #clear()}. */
+	private volatile int mGeneration = 0;
+
+	private final ThreadLocal<CallStack> mCallStack = new ThreadLocal<CallStack>() {
+		@Override
+		protected CallStack initialValue() {
+			return new CallStack();
+		}
+	};
+
+	private final boolean mMeasureCpu;
+
+	public JythonTracer() {
+		mMeasureCpu = THREAD_BEAN.isCurrentThreadCpuTimeSupported() && THREAD_BEAN.isThreadCpuTimeEnabled();
+	}
+
 	@Override
-	public PyObject __call__(final PyObject arg0, final PyObject arg1, final PyObject arg2) {
-		if("call".equals(arg1.toString())) {
-			// call
-			//			return super.__call__(arg0, arg1, arg2);
-		} else {
-			//			return super.__call__(arg0, arg1, arg2);
+	public PyObject __call__(final PyObject frame, final PyObject event, final PyObject arg) {
+		if (frame instanceof PyFrame) {
+			final String type = event.toString();
+			if ("call".equals(type))
+				enter((PyFrame) frame);
+
+			else if (("return".equals(type)) || ("exception".equals(type)))
+				// jython reports frames left by an exception with an exception event instead of a return event
+				leave((PyFrame) frame);
+		}
+
+		return Py.None;
+	}
+
+	private CallStack getCallStack() {
+		final CallStack stack = mCallStack.get();
+		if (stack.mGeneration != mGeneration)
+			stack.reset(mGeneration);
+
+		return stack;
+	}
+
+	private void enter(final PyFrame frame) {
+		final CallStack stack = getCallStack();
+		if (frame.f_back == null)
+			// a new execution starts, drop frames of aborted executions
+			stack.reset(mGeneration);
+
+		final int code;
+		synchronized (this) {
+			if (stack.mGeneration != mGeneration)
+				// cleared meanwhile
+				stack.reset(mGeneration);
+
+			code = getCodeIndex(frame.f_code);
+
+			mCalls[code]++;
+			if (code >= stack.mActive.length)
+				stack.mActive = Arrays.copyOf(stack.mActive, mCodes.length);
+
+			if (stack.mActive[code]++ == 0)
+				mPrimitiveCalls[code]++;
+		}
+
+		if (stack.mDepth == stack.mFrames.length) {
+			final int capacity = stack.mDepth * 2;
+			stack.mFrames = Arrays.copyOf(stack.mFrames, capacity);
+			stack.mCode = Arrays.copyOf(stack.mCode, capacity);
+			stack.mStart = Arrays.copyOf(stack.mStart, capacity);
+			stack.mCpuStart = Arrays.copyOf(stack.mCpuStart, capacity);
+			stack.mChildTime = Arrays.copyOf(stack.mChildTime, capacity);
+		}
+
+		final int depth = stack.mDepth;
+		stack.mFrames[depth] = frame;
+		stack.mCode[depth] = code;
+		stack.mChildTime[depth] = 0;
+		stack.mCpuStart[depth] = (mMeasureCpu) ? THREAD_BEAN.getCurrentThreadCpuTime() : 0;
+		stack.mStart[depth] = System.nanoTime();
+		stack.mDepth++;
+	}
+
+	private void leave(final PyFrame frame) {
+		final long now = System.nanoTime();
+		final long cpuNow = (mMeasureCpu) ? THREAD_BEAN.getCurrentThreadCpuTime() : 0;
+
+		final CallStack stack = getCallStack();
+
+		// frames might have been left without event (profiling started within a call), unwind up to the matching frame
+		int depth = stack.mDepth;
+		while ((depth > 0) && (stack.mFrames[depth - 1] != frame))
+			depth--;
+
+		if (depth == 0)
+			// call was not recorded
+			return;
+
+		synchronized (this) {
+			if (stack.mGeneration != mGeneration) {
+				// cleared meanwhile, code indices are no longer valid
+				stack.reset(mGeneration);
+				return;
+			}
+
+			while (stack.mDepth >= depth) {
+				stack.mDepth--;
+
+				final int code = stack.mCode[stack.mDepth];
+				final long elapsed = now - stack.mStart[stack.mDepth];
+
+				mTotalTime[code] += elapsed - stack.mChildTime[stack.mDepth];
+				if (--stack.mActive[code] == 0) {
+					// only count outermost invocation of recursive calls
+					mCumulativeTime[code] += elapsed;
+					mCpuTime[code] += cpuNow - stack.mCpuStart[stack.mDepth];
+				}
+
+				stack.mFrames[stack.mDepth] = null;
+				if (stack.mDepth > 0)
+					stack.mChildTime[stack.mDepth - 1] += elapsed;
+			}
+		}
+	}
+
+	private int getCodeIndex(final PyBaseCode code) {
+		final Integer index = mCodeIndex.get(code);
+		if (index != null)
+			return index;
+
+		final int next = mCodeIndex.size();
+		if (next == mCodes.length) {
+			final int capacity = next * 2;
+			mCodes = Arrays.copyOf(mCodes, capacity);
+			mCalls = Arrays.copyOf(mCalls, capacity);
+			mPrimitiveCalls = Arrays.copyOf(mPrimitiveCalls, capacity);
+			mTotalTime = Arrays.copyOf(mTotalTime, capacity);
+			mCumulativeTime = Arrays.copyOf(mCumulativeTime, capacity);
+			mCpuTime = Arrays.copyOf(mCpuTime, capacity);
+		}
+
+		mCodes[next] = code;
+		mCodeIndex.put(code, next);
+		return next;
+	}
+
+	/**
+	 * Get recorded statistics.
+	 *
+	 * @param sortKey
+	 *            sort order, descending for times and calls, ascending for names
+	 * @return statistics per function
+	 */
+	public synchronized List<FunctionStatistics> getStatistics(final SortKey sortKey) {
+		final List<FunctionStatistics> statistics = new ArrayList<FunctionStatistics>();
+		for (int index = 0; index < mCodeIndex.size(); index++) {
+			final PyBaseCode code = mCodes[index];
+			statistics.add(new FunctionStatistics(code.co_filename, code.co_firstlineno, code.co_name, mCalls[index], mPrimitiveCalls[index],
+					mTotalTime[index], mCumulativeTime[index], mCpuTime[index]));
+		}
+
+		Collections.sort(statistics, new Comparator<FunctionStatistics>() {
+
+			@Override
+			public int compare(final FunctionStatistics o1, final FunctionStatistics o2) {
+				switch (sortKey) {
+				case CALLS:
+					return compareLong(o2.getCalls(), o1.getCalls());
+				case TOTAL_TIME:
+					return compareLong(o2.getTotalTime(), o1.getTotalTime());
+				case CUMULATIVE_TIME:
+					return compareLong(o2.getCumulativeTime(), o1.getCumulativeTime());
+				case CPU_TIME:
+					return compareLong(o2.getCpuTime(), o1.getCpuTime());
+				default:
+					final int result = o1.getFilename().compareTo(o2.getFilename());
+					return (result != 0) ? result : o1.getLine() - o2.getLine();
+				}
+			}
+		});
+
+		return statistics;
+	}
+
+	private static int compareLong(final long a, final long b) {
+		return (a < b) ? -1 : ((a == b) ? 0 : 1);
+	}
+
+	/**
+	 * Write a human readable report similar to the output of <i>pstats</i>.
+	 *
+	 * @param writer
+	 *            writer to write to, not closed by this method
+	 * @param sortKey
+	 *            sort order
+	 * @param limit
+	 *            maximum amount of functions to report, 0 for all
+	 * @throws IOException
+	 *             when writing fails
+	 */
+	public void writeReport(final Writer writer, final SortKey sortKey, final int limit) throws IOException {
+		writer.write("   ncalls  tottime  percall  cumtime  percall  cputime filename:lineno(function)\n");
+
+		int count = 0;
+		for (final FunctionStatistics entry : getStatistics(sortKey)) {
+			if ((limit > 0) && (count++ >= limit))
+				break;
+
+			final String calls = (entry.getCalls() == entry.getPrimitiveCalls()) ? Long.toString(entry.getCalls()) : entry.getCalls() + "/"
+					+ entry.getPrimitiveCalls();
+			writer.write(String.format(Locale.ENGLISH, "%9s %8.3f %8.3f %8.3f %8.3f %8.3f %s:%d(%s)\n", calls, toSeconds(entry.getTotalTime()),
+					toSeconds(entry.getTotalTime()) / entry.getCalls(), toSeconds(entry.getCumulativeTime()), toSeconds(entry.getCumulativeTime())
+							/ Math.max(1, entry.getPrimitiveCalls()), toSeconds(entry.getCpuTime()), entry.getFilename(), entry.getLine(), entry.getName()));
+		}
+
+		writer.flush();
+	}
+
+	/**
+	 * Write statistics in the marshal format of <i>pstats</i>. The file can be loaded by <code>pstats.Stats(filename)</code>.
+	 *
+	 * @param output
+	 *            stream to write to, not closed by this method
+	 * @throws IOException
+	 *             when writing fails
+	 */
+	public void writePstats(final OutputStream output) throws IOException {
+		final MarshalWriter writer = new MarshalWriter(output);
+
+		// {(filename, line, name): (primitive calls, calls, total time, cumulative time, callers)}
+		writer.writeDictStart();
+		for (final FunctionStatistics entry : getStatistics(SortKey.NAME)) {
+			writer.writeTupleStart(3);
+			writer.writeString(entry.getFilename());
+			writer.writeInt(entry.getLine());
+			writer.writeString(entry.getName());
+
+			writer.writeTupleStart(5);
+			writer.writeInt(entry.getPrimitiveCalls());
+			writer.writeInt(entry.getCalls());
+			writer.writeFloat(toSeconds(entry.getTotalTime()));
+			writer.writeFloat(toSeconds(entry.getCumulativeTime()));
+			writer.writeDictStart();
+			writer.writeDictEnd();
+		}
+		writer.writeDictEnd();
+
+		writer.flush();
+	}
+
+	/**
+	 * Write statistics in the marshal format of <i>pstats</i> to a file.
+	 *
+	 * @param file
+	 *            output file
+	 * @throws IOException
+	 *             when writing fails
+	 */
+	public void writePstats(final File file) throws IOException {
+		final OutputStream output = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			writePstats(output);
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Drop all recorded statistics.
+	 */
+	public synchronized void clear() {
+		mCodeIndex.clear();
+		Arrays.fill(mCodes, null);
+		Arrays.fill(mCalls, 0);
+		Arrays.fill(mPrimitiveCalls, 0);
+		Arrays.fill(mTotalTime, 0);
+		Arrays.fill(mCumulativeTime, 0);
+		Arrays.fill(mCpuTime, 0);
+
+		// call stacks of all threads get reset on their next event
+		mGeneration++;
+	}
+
+	private static double toSeconds(final long nanos) {
+		return nanos / 1000000000.0;
+	}
+
+	/**
+	 * Minimal writer for the python marshal format (version 2).
+	 */
+	private static class MarshalWriter {
+
+		private final DataOutputStream mOutput;
+
+		public MarshalWriter(final OutputStream output) {
+			mOutput = new DataOutputStream(output);
 		}
 
-		return this;
+		public void writeDictStart() throws IOException {
+			mOutput.write('{');
+		}
+
+		public void writeDictEnd() throws IOException {
+			mOutput.write('0');
+		}
+
+		public void writeTupleStart(final int size) throws IOException {
+			mOutput.write('(');
+			writeRawInt(size);
+		}
+
+		public void writeString(final String value) throws IOException {
+			final byte[] bytes = value.getBytes("UTF-8");
+			mOutput.write('u');
+			writeRawInt(bytes.length);
+			mOutput.write(bytes);
+		}
+
+		public void writeInt(final long value) throws IOException {
+			mOutput.write('i');
+			writeRawInt((int) Math.min(Integer.MAX_VALUE, value));
+		}
+
+		public void writeFloat(final double value) throws IOException {
+			mOutput.write('g');
+			mOutput.writeLong(Long.reverseBytes(Double.doubleToLongBits(value)));
+		}
+
+		public void flush() throws IOException {
+			mOutput.flush();
+		}
+
+		private void writeRawInt(final int value) throws IOException {
+			mOutput.writeInt(Integer.reverseBytes(value));
+		}
 	}
 }
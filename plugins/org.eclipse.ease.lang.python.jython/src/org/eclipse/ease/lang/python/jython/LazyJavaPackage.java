@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Christian Pontesegger and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Christian Pontesegger - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython;
+
+import org.python.core.PyObject;
+import org.python.core.PyString;
+import org.python.core.imp;
+
+/**
+ * Placeholder for a top level java package. The real package gets imported on first attribute access.
+ */
+public class LazyJavaPackage extends PyObject {
+
+	private static final long serialVersionUID = 6000520178218957085L;
+
+	private final String mName;
+
+	private PyObject mPackage = null;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param name
+	 *            top level package name, eg "java"
+	 */
+	public LazyJavaPackage(final String name) {
+		mName = name;
+	}
+
+	/**
+	 * Get the real package. Imports the package on first access.
+	 *
+	 * @return java package
+	 */
+	public synchronized PyObject getPackage() {
+		if (mPackage == null)
+			mPackage = imp.importName(mName, true);
+
+		return mPackage;
+	}
+
+	@Override
+	public PyObject __findattr_ex__(final String name) {
+		return getPackage().__findattr_ex__(name);
+	}
+
+	@Override
+	public void __setattr__(final String name, final PyObject value) {
+		getPackage().__setattr__(name, value);
+	}
+
+	@Override
+	public void __delattr__(final String name) {
+		getPackage().__delattr__(name);
+	}
+
+	@Override
+	public PyObject __dir__() {
+		return getPackage().__dir__();
+	}
+
+	@Override
+	public PyString __repr__() {
+		return getPackage().__repr__();
+	}
+
+	@Override
+	public Object __tojava__(final Class<?> c) {
+		return getPackage().__tojava__(c);
+	}
+}
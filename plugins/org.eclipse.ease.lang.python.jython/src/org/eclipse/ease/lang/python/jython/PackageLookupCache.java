@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Christian Pontesegger and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Christian Pontesegger - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe, bounded cache for package lookups of {@link JythonPackageManager}. Positive results (name is a java package) and negative results (name
+ * is not a package) are stored in separate concurrent maps so they can be invalidated independently. Lookups do not lock.
+ * <p>
+ * Eviction is approximate: when a map exceeds its maximum size on insertion, arbitrary entries are dropped until it fits again. Lookups are cheap to
+ * repeat, so there is no need to track access order, which would turn every lookup into a write.
+ * </p>
+ */
+public class PackageLookupCache {
+
+	private final int mMaxEntries;
+
+	private final Map<String, Boolean> mPositive = new ConcurrentHashMap<String, Boolean>();
+
+	private final Map<String, Boolean> mNegative = new ConcurrentHashMap<String, Boolean>();
+
+	private final AtomicLong mHits = new AtomicLong();
+
+	private final AtomicLong mMisses = new AtomicLong();
+
+	private final AtomicLong mEvictions = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxEntries
+	 *            maximum amount of entries for positive and negative results each
+	 */
+	public PackageLookupCache(final int maxEntries) {
+		mMaxEntries = maxEntries;
+	}
+
+	/**
+	 * Get a cached lookup result.
+	 *
+	 * @param qualifiedName
+	 *            name to look up
+	 * @return cached result or <code>null</code> when not cached
+	 */
+	public Boolean get(final String qualifiedName) {
+		if (mPositive.containsKey(qualifiedName)) {
+			mHits.incrementAndGet();
+			return Boolean.TRUE;
+		}
+
+		if (mNegative.containsKey(qualifiedName)) {
+			mHits.incrementAndGet();
+			return Boolean.FALSE;
+		}
+
+		mMisses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Store a lookup result.
+	 *
+	 * @param qualifiedName
+	 *            looked up name
+	 * @param isPackage
+	 *            lookup result
+	 */
+	public void put(final String qualifiedName, final boolean isPackage) {
+		final Map<String, Boolean> target = (isPackage) ? mPositive : mNegative;
+		if ((target.put(qualifiedName, Boolean.TRUE) == null) && (target.size() > mMaxEntries))
+			evict(target);
+	}
+
+	private void evict(final Map<String, Boolean> target) {
+		final Iterator<String> iterator = target.keySet().iterator();
+		while ((target.size() > mMaxEntries) && (iterator.hasNext())) {
+			iterator.next();
+			iterator.remove();
+			mEvictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Drop all positive results. Needed when names considered as packages might resolve to classes, eg when bundles got installed.
+	 */
+	public void invalidatePositive() {
+		mPositive.clear();
+	}
+
+	/**
+	 * Drop all negative results. Needed when classes might have disappeared, eg when bundles got uninstalled.
+	 */
+	public void invalidateNegative() {
+		mNegative.clear();
+	}
+
+	/**
+	 * Drop all cached results.
+	 */
+	public void invalidate() {
+		invalidatePositive();
+		invalidateNegative();
+	}
+
+	/**
+	 * Get the amount of cached entries.
+	 *
+	 * @return cache size
+	 */
+	public int getSize() {
+		return mPositive.size() + mNegative.size();
+	}
+
+	/**
+	 * Get the amount of lookups answered from the cache.
+	 *
+	 * @return cache hits
+	 */
+	public long getHits() {
+		return mHits.get();
+	}
+
+	/**
+	 * Get the amount of lookups not found in the cache.
+	 *
+	 * @return cache misses
+	 */
+	public long getMisses() {
+		return mMisses.get();
+	}
+
+	/**
+	 * Get the amount of entries dropped to keep the cache within its bounds.
+	 *
+	 * @return evicted entries
+	 */
+	public long getEvictions() {
+		return mEvictions.get();
+	}
+
+	@Override
+	public String toString() {
+		return "PackageLookupCache [size=" + getSize() + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions() + "]";
+	}
+}
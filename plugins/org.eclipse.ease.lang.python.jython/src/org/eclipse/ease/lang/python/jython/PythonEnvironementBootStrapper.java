@@ -25,10 +25,7 @@ public class PythonEnvironementBootStrapper implements IScriptEngineLaunchExtens
 		final StringBuilder code = new StringBuilder("from org.eclipse.ease.modules import EnvironmentModule\n");
 		code.append("EnvironmentModule().loadModule(\"/System/Environment\")\n");
 
-		// register top level packages
-		code.append("import java\n");
-		code.append("import org\n");
-		code.append("import com\n");
+		// top level java packages are bound by the engine, either pre-imported or lazily on first access
 
 		engine.executeAsync(code);
 	}
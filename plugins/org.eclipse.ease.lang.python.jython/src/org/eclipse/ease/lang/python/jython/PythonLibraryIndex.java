@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Christian Pontesegger and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Christian Pontesegger - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Index of python module and package names available in library folders. The index is built on first access. Only folders containing an
+ * <i>__init__.py</i> file are treated as packages, other folders are neither indexed nor traversed. Folder timestamps are verified at most once per
+ * check interval by a single thread, without blocking lookups. A modified folder triggers a rebuild.
+ */
+public class PythonLibraryIndex {
+
+	/** Minimum time between two checks for modified folders. */
+	private static final long CHECK_INTERVAL = 5000;
+
+	private static final String PYTHON_EXTENSION = ".py";
+
+	private static final String PACKAGE_INIT = "__init__.py";
+
+	private volatile Set<String> mNames = null;
+
+	private volatile Map<File, Long> mFolderTimestamps = Collections.emptyMap();
+
+	private final AtomicLong mLastCheck = new AtomicLong(0);
+
+	/**
+	 * Check whether a qualified name denotes a python module or package.
+	 *
+	 * @param qualifiedName
+	 *            dotted module name
+	 * @return <code>true</code> when found in one of the library folders
+	 */
+	public boolean contains(final String qualifiedName) {
+		Set<String> names = mNames;
+		if ((names == null) || (isOutdated()))
+			names = rebuild();
+
+		return names.contains(qualifiedName);
+	}
+
+	/**
+	 * Drop the current index. It will be rebuilt on next access.
+	 */
+	public synchronized void invalidate() {
+		mNames = null;
+	}
+
+	private boolean isOutdated() {
+		final long now = System.currentTimeMillis();
+		final long lastCheck = mLastCheck.get();
+		if (((now - lastCheck) < CHECK_INTERVAL) || (!mLastCheck.compareAndSet(lastCheck, now)))
+			// checked recently or another thread is checking right now
+			return false;
+
+		for (final Entry<File, Long> entry : mFolderTimestamps.entrySet()) {
+			if (entry.getKey().lastModified() != entry.getValue())
+				return true;
+		}
+
+		return false;
+	}
+
+	private synchronized Set<String> rebuild() {
+		final Set<String> names = new HashSet<String>();
+		final Map<File, Long> timestamps = new HashMap<File, Long>();
+
+		for (final File folder : getRootFolders())
+			index(folder, "", names, timestamps);
+
+		mFolderTimestamps = timestamps;
+		mLastCheck.set(System.currentTimeMillis());
+		mNames = names;
+
+		return names;
+	}
+
+	private static Collection<File> getRootFolders() {
+		final Set<File> folders = new HashSet<File>();
+		for (final File folder : Activator.getLibraryFolders()) {
+			folders.add(folder);
+
+			final File sitePackages = new File(folder, "site-packages");
+			if (sitePackages.isDirectory())
+				folders.add(sitePackages);
+		}
+
+		for (final String libraryPath : Activator.getDefault().getPythonLibraries()) {
+			if ((libraryPath != null) && !libraryPath.isEmpty()) {
+				final File folder = new File(libraryPath);
+				if (folder.isDirectory())
+					folders.add(folder);
+			}
+		}
+
+		return folders;
+	}
+
+	private static void index(final File folder, final String prefix, final Set<String> names, final Map<File, Long> timestamps) {
+		final File[] children = folder.listFiles();
+		if (children == null)
+			return;
+
+		timestamps.put(folder, folder.lastModified());
+
+		for (final File child : children) {
+			final String name = child.getName();
+			if (child.isDirectory()) {
+				// plain folders might be java packages or data, do not shadow them
+				if (new File(child, PACKAGE_INIT).isFile()) {
+					names.add(prefix + name);
+					index(child, prefix + name + ".", names, timestamps);
+				}
+
+			} else if (name.endsWith(PYTHON_EXTENSION))
+				names.add(prefix + name.substring(0, name.length() - PYTHON_EXTENSION.length()));
+		}
+	}
+}
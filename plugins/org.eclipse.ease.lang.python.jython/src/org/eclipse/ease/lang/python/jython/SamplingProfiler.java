@@ -0,0 +1,323 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Christian Pontesegger and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Christian Pontesegger - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.python.core.PyBaseCode;
+import org.python.core.PyFrame;
+import org.python.core.ThreadState;
+
+/**
+ * Sampling profiler for Jython engines. A background thread periodically captures the python stack of running engines by walking the frame chain of
+ * their thread state. No trace function is needed, so profiled scripts run at full speed apart from the sampling itself.
+ * <p>
+ * Samples are aggregated to collapsed stacks (one line per distinct stack: frames separated by ';' followed by the sample count), the input format of
+ * flame graph tools. Separators within function or file names are replaced by ','. The amount of distinct stacks is limited; samples of new stacks
+ * exceeding the budget are counted as truncated.
+ * </p>
+ */
+public class SamplingProfiler {
+
+	/** Default sampling interval in milliseconds. */
+	public static final int DEFAULT_INTERVAL = 10;
+
+	/** Default maximum amount of distinct stacks. */
+	public static final int DEFAULT_MAX_STACKS = 10000;
+
+	/** Stack deeper than this get cut off at the root. */
+	private static final int MAX_DEPTH = 256;
+
+	/** Maximum time in milliseconds to wait for the sampler thread to terminate. */
+	private static final long STOP_TIMEOUT = 1000;
+
+	/** Collapsed stack recording samples that exceeded the memory budget. */
+	private static final String TRUNCATED_STACK = "[truncated]";
+
+	private class SamplerThread extends Thread {
+
+		public SamplerThread() {
+			super("Jython sampling profiler");
+
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (mRunning) {
+				sample();
+
+				try {
+					Thread.sleep(mInterval);
+				} catch (final InterruptedException e) {
+					// stop requested
+				}
+			}
+		}
+	}
+
+	private final List<JythonScriptEngine> mEngines = new CopyOnWriteArrayList<JythonScriptEngine>();
+
+	/** Sample counts per collapsed stack. */
+	private final Map<String, long[]> mStacks = new HashMap<String, long[]>();
+
+	private final int mInterval;
+
+	private final int mMaxStacks;
+
+	private volatile boolean mRunning = false;
+
+	private Thread mThread = null;
+
+	private long mSamples = 0;
+
+	private long mTruncatedSamples = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param interval
+	 *            sampling interval in milliseconds
+	 * @param maxStacks
+	 *            maximum amount of distinct stacks to record
+	 */
+	public SamplingProfiler(final int interval, final int maxStacks) {
+		mInterval = Math.max(1, interval);
+		mMaxStacks = Math.max(1, maxStacks);
+	}
+
+	/**
+	 * Add an engine to be sampled.
+	 *
+	 * @param engine
+	 *            engine to profile
+	 */
+	public void addEngine(final JythonScriptEngine engine) {
+		if (!mEngines.contains(engine))
+			mEngines.add(engine);
+	}
+
+	/**
+	 * Stop sampling an engine.
+	 *
+	 * @param engine
+	 *            engine to remove
+	 */
+	public void removeEngine(final JythonScriptEngine engine) {
+		mEngines.remove(engine);
+	}
+
+	/**
+	 * Check whether engines are sampled.
+	 *
+	 * @return <code>true</code> when running
+	 */
+	public boolean isRunning() {
+		return mRunning;
+	}
+
+	/**
+	 * Start sampling. Recorded samples are kept, so a profiler may be started and stopped several times.
+	 */
+	public synchronized void start() {
+		if (!mRunning) {
+			mRunning = true;
+			mThread = new SamplerThread();
+			mThread.start();
+		}
+	}
+
+	/**
+	 * Stop sampling. Waits for a sample in progress to finish, so profiled engines may be torn down afterwards.
+	 */
+	public void stop() {
+		final Thread thread;
+		synchronized (this) {
+			if (!mRunning)
+				return;
+
+			mRunning = false;
+			thread = mThread;
+			mThread = null;
+		}
+
+		// do not hold the monitor while joining, the sampler needs it to record
+		thread.interrupt();
+		try {
+			thread.join(STOP_TIMEOUT);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Capture one sample of all profiled engines. Called periodically by the sampler thread.
+	 * <p>
+	 * Jython does not publish frame changes to other threads, so a sample might see a slightly outdated stack. Frames are only read, never modified,
+	 * and inconsistent frame chains are skipped, which makes such races harmless for statistical sampling.
+	 * </p>
+	 */
+	void sample() {
+		for (final JythonScriptEngine engine : mEngines) {
+			if (!mRunning)
+				return;
+
+			final ThreadState state = engine.getExecutionState();
+			if (state != null) {
+				final PyFrame frame = state.frame;
+				if (frame != null) {
+					try {
+						record(getCollapsedStack(frame));
+					} catch (final RuntimeException e) {
+						// frame chain modified while walking it, drop this sample
+					}
+				}
+			}
+		}
+	}
+
+	private synchronized void record(final String stack) {
+		mSamples++;
+
+		long[] counter = mStacks.get(stack);
+		if (counter == null) {
+			if (mStacks.size() >= mMaxStacks) {
+				mTruncatedSamples++;
+				return;
+			}
+
+			counter = new long[1];
+			mStacks.put(stack, counter);
+		}
+
+		counter[0]++;
+	}
+
+	private static String getCollapsedStack(final PyFrame origin) {
+		final List<PyFrame> frames = new ArrayList<PyFrame>();
+		PyFrame frame = origin;
+		while ((frame != null) && (frames.size() < MAX_DEPTH)) {
+			frames.add(frame);
+			frame = frame.f_back;
+		}
+
+		// collapsed stacks start with the root frame
+		final StringBuilder stack = new StringBuilder();
+		for (int index = frames.size() - 1; index >= 0; index--) {
+			final PyFrame current = frames.get(index);
+			if (stack.length() > 0)
+				stack.append(';');
+
+			final PyBaseCode code = current.f_code;
+			if (code != null)
+				stack.append(escape(code.co_name)).append(" (").append(escape(code.co_filename)).append(':').append(code.co_firstlineno).append(')');
+			else
+				stack.append("(unknown)");
+		}
+
+		return stack.toString();
+	}
+
+	/**
+	 * Remove separators from frame descriptions: ';' separates frames, line feeds separate stacks. Collapsed stack tools do not support escaping.
+	 */
+	private static String escape(final String text) {
+		if (text == null)
+			return "";
+
+		return text.replace(';', ',').replace('\n', ' ').replace('\r', ' ');
+	}
+
+	/**
+	 * Get the total amount of recorded samples, including truncated ones.
+	 *
+	 * @return sample count
+	 */
+	public synchronized long getSampleCount() {
+		return mSamples;
+	}
+
+	/**
+	 * Get the amount of samples dropped as their stacks exceeded the memory budget.
+	 *
+	 * @return truncated sample count
+	 */
+	public synchronized long getTruncatedSampleCount() {
+		return mTruncatedSamples;
+	}
+
+	/**
+	 * Get recorded samples as collapsed stacks.
+	 *
+	 * @return sample count per collapsed stack
+	 */
+	public synchronized Map<String, Long> getCollapsedStacks() {
+		final Map<String, Long> result = new HashMap<String, Long>();
+		for (final Map.Entry<String, long[]> entry : mStacks.entrySet())
+			result.put(entry.getKey(), entry.getValue()[0]);
+
+		if (mTruncatedSamples > 0)
+			result.put(TRUNCATED_STACK, mTruncatedSamples);
+
+		return result;
+	}
+
+	/**
+	 * Write recorded samples in collapsed stack format, as consumed by flamegraph.pl and compatible tools.
+	 *
+	 * @param writer
+	 *            writer to write to, not closed by this method
+	 * @throws IOException
+	 *             when writing fails
+	 */
+	public void writeCollapsedStacks(final Writer writer) throws IOException {
+		for (final Map.Entry<String, Long> entry : getCollapsedStacks().entrySet())
+			writer.write(entry.getKey() + " " + entry.getValue() + "\n");
+
+		writer.flush();
+	}
+
+	/**
+	 * Write recorded samples in collapsed stack format to a file.
+	 *
+	 * @param file
+	 *            output file
+	 * @throws IOException
+	 *             when writing fails
+	 */
+	public void writeCollapsedStacks(final File file) throws IOException {
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		try {
+			writeCollapsedStacks(writer);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Drop all recorded samples.
+	 */
+	public synchronized void clear() {
+		mStacks.clear();
+		mSamples = 0;
+		mTruncatedSamples = 0;
+	}
+}
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Christian Pontesegger and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Christian Pontesegger - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython;
+
+import org.python.core.Py;
+import org.python.core.PyException;
+import org.python.core.PyFrame;
+import org.python.core.PyMethod;
+import org.python.core.PyObject;
+import org.python.core.PyString;
+import org.python.core.PyTuple;
+import org.python.core.ThreadState;
+import org.python.core.TraceFunction;
+
+/**
+ * Adapts a python callable with <code>sys.settrace()</code> semantics to a jython {@link TraceFunction}. Allows to install trace and profile functions
+ * on any thread state, not only the one of the calling thread. Event names are shared constants, so dispatching does not allocate.
+ */
+public class TraceFunctionAdapter extends TraceFunction {
+
+	private static final PyString EVENT_CALL = new PyString("call");
+	private static final PyString EVENT_RETURN = new PyString("return");
+	private static final PyString EVENT_LINE = new PyString("line");
+	private static final PyString EVENT_EXCEPTION = new PyString("exception");
+
+	private final PyObject mFunction;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param function
+	 *            callable accepting (frame, event, arg)
+	 */
+	public TraceFunctionAdapter(final PyObject function) {
+		mFunction = function;
+	}
+
+	/**
+	 * Call the python function. Like jython's own trace functions, frames of the trace function itself are not traced, and a failing trace function
+	 * gets uninstalled.
+	 */
+	private TraceFunction dispatch(final PyFrame frame, final PyString event, final PyObject arg) {
+		final ThreadState state = Py.getThreadState();
+		if (state.tracing)
+			return null;
+
+		final PyObject result;
+		try {
+			state.tracing = true;
+			result = mFunction.__call__(frame, event, arg);
+
+		} catch (final PyException e) {
+			frame.tracefunc = null;
+			state.tracefunc = null;
+			state.profilefunc = null;
+			throw e;
+
+		} finally {
+			state.tracing = false;
+		}
+
+		if ((result == null) || (result == Py.None))
+			return null;
+
+		return (isSameFunction(result)) ? this : new TraceFunctionAdapter(result);
+	}
+
+	/**
+	 * Check whether a returned trace function equals the wrapped one. Bound methods like <i>self.trace</i> are created on each access, so they are
+	 * compared by their function and instance.
+	 */
+	private boolean isSameFunction(final PyObject function) {
+		if (function == mFunction)
+			return true;
+
+		if ((function instanceof PyMethod) && (mFunction instanceof PyMethod))
+			return (((PyMethod) function).__func__ == ((PyMethod) mFunction).__func__) && (((PyMethod) function).__self__ == ((PyMethod) mFunction).__self__);
+
+		return false;
+	}
+
+	@Override
+	public TraceFunction traceCall(final PyFrame frame) {
+		return dispatch(frame, EVENT_CALL, Py.None);
+	}
+
+	@Override
+	public TraceFunction traceReturn(final PyFrame frame, final PyObject ret) {
+		return dispatch(frame, EVENT_RETURN, ret);
+	}
+
+	@Override
+	public TraceFunction traceLine(final PyFrame frame, final int line) {
+		return dispatch(frame, EVENT_LINE, Py.None);
+	}
+
+	@Override
+	public TraceFunction traceException(final PyFrame frame, final PyException exc) {
+		return dispatch(frame, EVENT_EXCEPTION, new PyTuple(exc.type, exc.value, (PyObject) exc.traceback));
+	}
+}
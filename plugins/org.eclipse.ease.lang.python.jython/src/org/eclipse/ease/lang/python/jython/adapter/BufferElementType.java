@@ -0,0 +1,331 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Christian Pontesegger and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Christian Pontesegger - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython.adapter;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+
+import org.python.core.Py;
+import org.python.core.PyObject;
+
+/**
+ * Element types supported by {@link JavaBufferAdapter}. Each type knows how to access its typed NIO buffer, so buffer operations do not need to box
+ * elements into java wrapper objects. Type codes match the python <i>array</i> module.
+ */
+public enum BufferElementType {
+
+	BYTE('b', byte.class, 1) {
+
+		@Override
+		Buffer slice(final Buffer buffer, final int start, final int length) {
+			final ByteBuffer duplicate = ((ByteBuffer) buffer).duplicate();
+			duplicate.limit(start + length).position(start);
+			return duplicate.slice();
+		}
+
+		@Override
+		PyObject get(final Buffer buffer, final int index) {
+			return Py.newInteger(((ByteBuffer) buffer).get(index));
+		}
+
+		@Override
+		void put(final Buffer buffer, final int index, final PyObject value) {
+			((ByteBuffer) buffer).put(index, (byte) asRangedInt(value, Byte.MIN_VALUE, Byte.MAX_VALUE, "signed char"));
+		}
+
+		@Override
+		void get(final Buffer buffer, final int index, final Object target, final int offset, final int length) {
+			final ByteBuffer duplicate = ((ByteBuffer) buffer).duplicate();
+			duplicate.position(index);
+			duplicate.get((byte[]) target, offset, length);
+		}
+
+		@Override
+		void put(final Buffer buffer, final int index, final Object source, final int offset, final int length) {
+			final ByteBuffer duplicate = ((ByteBuffer) buffer).duplicate();
+			duplicate.position(index);
+			duplicate.put((byte[]) source, offset, length);
+		}
+	},
+
+	SHORT('h', short.class, 2) {
+
+		@Override
+		Buffer slice(final Buffer buffer, final int start, final int length) {
+			final ShortBuffer duplicate = ((ShortBuffer) buffer).duplicate();
+			duplicate.limit(start + length).position(start);
+			return duplicate.slice();
+		}
+
+		@Override
+		PyObject get(final Buffer buffer, final int index) {
+			return Py.newInteger(((ShortBuffer) buffer).get(index));
+		}
+
+		@Override
+		void put(final Buffer buffer, final int index, final PyObject value) {
+			((ShortBuffer) buffer).put(index, (short) asRangedInt(value, Short.MIN_VALUE, Short.MAX_VALUE, "signed short integer"));
+		}
+
+		@Override
+		void get(final Buffer buffer, final int index, final Object target, final int offset, final int length) {
+			final ShortBuffer duplicate = ((ShortBuffer) buffer).duplicate();
+			duplicate.position(index);
+			duplicate.get((short[]) target, offset, length);
+		}
+
+		@Override
+		void put(final Buffer buffer, final int index, final Object source, final int offset, final int length) {
+			final ShortBuffer duplicate = ((ShortBuffer) buffer).duplicate();
+			duplicate.position(index);
+			duplicate.put((short[]) source, offset, length);
+		}
+	},
+
+	INT('i', int.class, 4) {
+
+		@Override
+		Buffer slice(final Buffer buffer, final int start, final int length) {
+			final IntBuffer duplicate = ((IntBuffer) buffer).duplicate();
+			duplicate.limit(start + length).position(start);
+			return duplicate.slice();
+		}
+
+		@Override
+		PyObject get(final Buffer buffer, final int index) {
+			return Py.newInteger(((IntBuffer) buffer).get(index));
+		}
+
+		@Override
+		void put(final Buffer buffer, final int index, final PyObject value) {
+			((IntBuffer) buffer).put(index, value.asInt());
+		}
+
+		@Override
+		void get(final Buffer buffer, final int index, final Object target, final int offset, final int length) {
+			final IntBuffer duplicate = ((IntBuffer) buffer).duplicate();
+			duplicate.position(index);
+			duplicate.get((int[]) target, offset, length);
+		}
+
+		@Override
+		void put(final Buffer buffer, final int index, final Object source, final int offset, final int length) {
+			final IntBuffer duplicate = ((IntBuffer) buffer).duplicate();
+			duplicate.position(index);
+			duplicate.put((int[]) source, offset, length);
+		}
+	},
+
+	LONG('l', long.class, 8) {
+
+		@Override
+		Buffer slice(final Buffer buffer, final int start, final int length) {
+			final LongBuffer duplicate = ((LongBuffer) buffer).duplicate();
+			duplicate.limit(start + length).position(start);
+			return duplicate.slice();
+		}
+
+		@Override
+		PyObject get(final Buffer buffer, final int index) {
+			return Py.newInteger(((LongBuffer) buffer).get(index));
+		}
+
+		@Override
+		void put(final Buffer buffer, final int index, final PyObject value) {
+			((LongBuffer) buffer).put(index, value.asLong());
+		}
+
+		@Override
+		void get(final Buffer buffer, final int index, final Object target, final int offset, final int length) {
+			final LongBuffer duplicate = ((LongBuffer) buffer).duplicate();
+			duplicate.position(index);
+			duplicate.get((long[]) target, offset, length);
+		}
+
+		@Override
+		void put(final Buffer buffer, final int index, final Object source, final int offset, final int length) {
+			final LongBuffer duplicate = ((LongBuffer) buffer).duplicate();
+			duplicate.position(index);
+			duplicate.put((long[]) source, offset, length);
+		}
+	},
+
+	FLOAT('f', float.class, 4) {
+
+		@Override
+		Buffer slice(final Buffer buffer, final int start, final int length) {
+			final FloatBuffer duplicate = ((FloatBuffer) buffer).duplicate();
+			duplicate.limit(start + length).position(start);
+			return duplicate.slice();
+		}
+
+		@Override
+		PyObject get(final Buffer buffer, final int index) {
+			return Py.newFloat(((FloatBuffer) buffer).get(index));
+		}
+
+		@Override
+		void put(final Buffer buffer, final int index, final PyObject value) {
+			((FloatBuffer) buffer).put(index, (float) value.asDouble());
+		}
+
+		@Override
+		void get(final Buffer buffer, final int index, final Object target, final int offset, final int length) {
+			final FloatBuffer duplicate = ((FloatBuffer) buffer).duplicate();
+			duplicate.position(index);
+			duplicate.get((float[]) target, offset, length);
+		}
+
+		@Override
+		void put(final Buffer buffer, final int index, final Object source, final int offset, final int length) {
+			final FloatBuffer duplicate = ((FloatBuffer) buffer).duplicate();
+			duplicate.position(index);
+			duplicate.put((float[]) source, offset, length);
+		}
+	},
+
+	DOUBLE('d', double.class, 8) {
+
+		@Override
+		Buffer slice(final Buffer buffer, final int start, final int length) {
+			final DoubleBuffer duplicate = ((DoubleBuffer) buffer).duplicate();
+			duplicate.limit(start + length).position(start);
+			return duplicate.slice();
+		}
+
+		@Override
+		PyObject get(final Buffer buffer, final int index) {
+			return Py.newFloat(((DoubleBuffer) buffer).get(index));
+		}
+
+		@Override
+		void put(final Buffer buffer, final int index, final PyObject value) {
+			((DoubleBuffer) buffer).put(index, value.asDouble());
+		}
+
+		@Override
+		void get(final Buffer buffer, final int index, final Object target, final int offset, final int length) {
+			final DoubleBuffer duplicate = ((DoubleBuffer) buffer).duplicate();
+			duplicate.position(index);
+			duplicate.get((double[]) target, offset, length);
+		}
+
+		@Override
+		void put(final Buffer buffer, final int index, final Object source, final int offset, final int length) {
+			final DoubleBuffer duplicate = ((DoubleBuffer) buffer).duplicate();
+			duplicate.position(index);
+			duplicate.put((double[]) source, offset, length);
+		}
+	};
+
+	private final char mTypecode;
+
+	private final Class<?> mComponentType;
+
+	private final int mItemSize;
+
+	private BufferElementType(final char typecode, final Class<?> componentType, final int itemSize) {
+		mTypecode = typecode;
+		mComponentType = componentType;
+		mItemSize = itemSize;
+	}
+
+	/**
+	 * Get the type code as used by the python <i>array</i> module.
+	 *
+	 * @return type code
+	 */
+	public char getTypecode() {
+		return mTypecode;
+	}
+
+	/**
+	 * Get the primitive java type of elements.
+	 *
+	 * @return primitive type
+	 */
+	public Class<?> getComponentType() {
+		return mComponentType;
+	}
+
+	/**
+	 * Get the size of a single element in bytes.
+	 *
+	 * @return element size
+	 */
+	public int getItemSize() {
+		return mItemSize;
+	}
+
+	/**
+	 * Get the element type of a primitive array class.
+	 *
+	 * @param arrayClass
+	 *            class to look up
+	 * @return element type or <code>null</code> for unsupported classes
+	 */
+	public static BufferElementType forArrayClass(final Class<?> arrayClass) {
+		for (final BufferElementType type : values()) {
+			if (type.mComponentType.equals(arrayClass.getComponentType()))
+				return type;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Convert a python value to an integer within a given range. Like the <i>array</i> module, values that do not fit the element type are rejected
+	 * instead of being truncated.
+	 *
+	 * @throws org.python.core.PyException
+	 *             <i>OverflowError</i> when the value is out of range
+	 */
+	private static int asRangedInt(final PyObject value, final int min, final int max, final String typeName) {
+		final int result = value.asInt();
+		if (result < min)
+			throw Py.OverflowError(typeName + " is less than minimum");
+
+		if (result > max)
+			throw Py.OverflowError(typeName + " is greater than maximum");
+
+		return result;
+	}
+
+	/**
+	 * Create a view on a range of a buffer. The view shares content with the buffer.
+	 */
+	abstract Buffer slice(Buffer buffer, int start, int length);
+
+	/**
+	 * Read a single element.
+	 */
+	abstract PyObject get(Buffer buffer, int index);
+
+	/**
+	 * Write a single element.
+	 */
+	abstract void put(Buffer buffer, int index, PyObject value);
+
+	/**
+	 * Read a range of elements into a primitive array.
+	 */
+	abstract void get(Buffer buffer, int index, Object target, int offset, int length);
+
+	/**
+	 * Write a range of elements from a primitive array.
+	 */
+	abstract void put(Buffer buffer, int index, Object source, int offset, int length);
+}
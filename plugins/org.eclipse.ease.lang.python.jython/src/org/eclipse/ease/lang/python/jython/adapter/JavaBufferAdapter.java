@@ -0,0 +1,437 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Christian Pontesegger and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Christian Pontesegger - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython.adapter;
+
+import java.lang.reflect.Array;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.python.core.BufferProtocol;
+import org.python.core.Py;
+import org.python.core.PyArray;
+import org.python.core.PyBuffer;
+import org.python.core.PyIterator;
+import org.python.core.PyList;
+import org.python.core.PyMemoryView;
+import org.python.core.PyObject;
+import org.python.core.PySlice;
+import org.python.core.buffer.SimpleWritableBuffer;
+
+/**
+ * Python view on primitive java arrays and NIO byte buffers. Elements are read and written in place, nothing gets copied and no java wrapper objects
+ * are created. Contiguous slices return views sharing the same content.
+ * <p>
+ * Besides the sequence protocol scripts may use:
+ * <ul>
+ * <li><code>typecode</code>, <code>itemsize</code>: element type as used by the <i>array</i> module</li>
+ * <li><code>put(index, values)</code>: bulk write of an <i>array.array</i>, a java array or any iterable, starting at <i>index</i>. Raises a
+ * <i>ValueError</i> when the values do not fit</li>
+ * <li><code>tolist()</code>: copy to a python list</li>
+ * <li><code>toarray()</code>: convert to <i>array.array</i>. Shares content when the view covers a whole java array</li>
+ * <li><code>tomemoryview()</code>: <i>memoryview</i> sharing content with byte arrays and heap byte buffers</li>
+ * </ul>
+ * </p>
+ * <p>
+ * Comparison, concatenation and repetition behave like <i>array.array</i>, which scripts received for primitive arrays before: views compare equal to
+ * arrays and views holding equal elements, <code>+</code> and <code>*</code> return new <i>array.array</i> instances. Like arrays, views are not
+ * hashable. Writing values that do not fit the element type raises an <i>OverflowError</i>. Views have a fixed size, methods like
+ * <code>append()</code> or <code>extend()</code> raise a <i>TypeError</i>.
+ * </p>
+ */
+public class JavaBufferAdapter extends JavaObjectAdapter implements BufferProtocol {
+
+	private static final long serialVersionUID = -3106226524850281436L;
+
+	/** <i>array.array</i> methods changing the size, views cannot support them without detaching from the wrapped data. */
+	private static final Set<String> RESIZING_METHODS = new HashSet<String>(Arrays.asList("append", "extend", "insert", "pop", "remove", "fromlist",
+			"fromstring", "fromunicode", "fromfile", "frombytes"));
+
+	/** Iterates buffer elements by index. */
+	private static class BufferIterator extends PyIterator {
+
+		private static final long serialVersionUID = 4385417004016937162L;
+
+		private final JavaBufferAdapter mAdapter;
+
+		private int mIndex = 0;
+
+		public BufferIterator(final JavaBufferAdapter adapter) {
+			mAdapter = adapter;
+		}
+
+		@Override
+		public PyObject __iternext__() {
+			if (mIndex < mAdapter.__len__())
+				return mAdapter.mType.get(mAdapter.mBuffer, mIndex++);
+
+			return null;
+		}
+	}
+
+	/** Python methods provided by buffer adapters. */
+	private class BufferMethod extends PyObject {
+
+		private static final long serialVersionUID = 8291556387230517402L;
+
+		private final String mName;
+
+		public BufferMethod(final String name) {
+			mName = name;
+		}
+
+		@Override
+		public PyObject __call__(final PyObject[] args, final String[] keywords) {
+			if (("put".equals(mName)) && (args.length == 2)) {
+				put(args[0].asIndex(Py.IndexError), args[1]);
+				return Py.None;
+			}
+
+			if (args.length == 0) {
+				if ("tolist".equals(mName))
+					return toList();
+
+				if ("toarray".equals(mName))
+					return toPyArray();
+
+				if ("tomemoryview".equals(mName))
+					return new PyMemoryView(JavaBufferAdapter.this);
+			}
+
+			throw Py.TypeError("invalid arguments for " + mName + "()");
+		}
+	}
+
+	private final BufferElementType mType;
+
+	/** Typed view on the wrapped data, index 0 denotes the first element of this adapter. */
+	private final Buffer mBuffer;
+
+	/**
+	 * Create an adapter for a primitive array or a byte buffer.
+	 *
+	 * @param value
+	 *            primitive array or {@link ByteBuffer}
+	 * @return adapter or <code>null</code> for unsupported objects
+	 */
+	public static JavaBufferAdapter wrap(final Object value) {
+		if (value instanceof ByteBuffer) {
+			// like NIO, use the content between position and limit
+			return new JavaBufferAdapter(value, BufferElementType.BYTE, ((ByteBuffer) value).slice());
+		}
+
+		if ((value != null) && (value.getClass().isArray())) {
+			final BufferElementType type = BufferElementType.forArrayClass(value.getClass());
+			if (type != null)
+				return new JavaBufferAdapter(value, type, wrapArray(type, value));
+		}
+
+		return null;
+	}
+
+	private static Buffer wrapArray(final BufferElementType type, final Object array) {
+		switch (type) {
+		case BYTE:
+			return ByteBuffer.wrap((byte[]) array);
+		case SHORT:
+			return ShortBuffer.wrap((short[]) array);
+		case INT:
+			return IntBuffer.wrap((int[]) array);
+		case LONG:
+			return LongBuffer.wrap((long[]) array);
+		case FLOAT:
+			return FloatBuffer.wrap((float[]) array);
+		case DOUBLE:
+			return DoubleBuffer.wrap((double[]) array);
+		default:
+			throw new IllegalArgumentException("Unsupported element type: " + type);
+		}
+	}
+
+	private JavaBufferAdapter(final Object source, final BufferElementType type, final Buffer buffer) {
+		super(source);
+
+		mType = type;
+		mBuffer = buffer;
+	}
+
+	/**
+	 * Get the element type.
+	 *
+	 * @return element type
+	 */
+	public BufferElementType getElementType() {
+		return mType;
+	}
+
+	/**
+	 * Get the typed NIO buffer backing this adapter. Index 0 of the buffer denotes the first element of this adapter.
+	 *
+	 * @return NIO buffer
+	 */
+	public Buffer getBuffer() {
+		return mBuffer;
+	}
+
+	/**
+	 * Read a range of elements.
+	 *
+	 * @param index
+	 *            first element to read
+	 * @param target
+	 *            primitive array matching the element type
+	 * @param offset
+	 *            first position to write to in <i>target</i>
+	 * @param length
+	 *            amount of elements to read
+	 */
+	public void get(final int index, final Object target, final int offset, final int length) {
+		checkArray(target);
+		mType.get(mBuffer, index, target, offset, length);
+	}
+
+	/**
+	 * Write a range of elements.
+	 *
+	 * @param index
+	 *            first element to write
+	 * @param source
+	 *            primitive array matching the element type
+	 * @param offset
+	 *            first position to read from in <i>source</i>
+	 * @param length
+	 *            amount of elements to write
+	 */
+	public void put(final int index, final Object source, final int offset, final int length) {
+		checkArray(source);
+		mType.put(mBuffer, index, source, offset, length);
+	}
+
+	/**
+	 * Get the content as primitive array. Returns the wrapped array when this adapter covers it completely, otherwise the content is copied. Byte
+	 * buffers are always copied.
+	 *
+	 * @return primitive array
+	 */
+	public Object toArray() {
+		final Object source = getJavaObject();
+		if ((mBuffer.hasArray()) && (mBuffer.array() == source) && (mBuffer.arrayOffset() == 0) && (Array.getLength(source) == __len__()))
+			return source;
+
+		final Object array = Array.newInstance(mType.getComponentType(), __len__());
+		mType.get(mBuffer, 0, array, 0, __len__());
+		return array;
+	}
+
+	@Override
+	public int __len__() {
+		return mBuffer.limit();
+	}
+
+	@Override
+	public boolean __nonzero__() {
+		return __len__() > 0;
+	}
+
+	@Override
+	public PyObject __finditem__(final PyObject key) {
+		if (key instanceof PySlice) {
+			final int[] indices = ((PySlice) key).indicesEx(__len__());
+			if (indices[2] == 1) {
+				// the slice itself is the java counterpart of the view
+				final Buffer slice = mType.slice(mBuffer, indices[0], indices[3]);
+				return new JavaBufferAdapter(slice, mType, slice);
+			}
+
+			final PyList result = new PyList();
+			for (int index = 0, position = indices[0]; index < indices[3]; index++, position += indices[2])
+				result.append(mType.get(mBuffer, position));
+
+			return result;
+		}
+
+		return mType.get(mBuffer, getIndex(key));
+	}
+
+	@Override
+	public PyObject __getitem__(final PyObject key) {
+		return __finditem__(key);
+	}
+
+	@Override
+	public void __setitem__(final PyObject key, final PyObject value) {
+		if (key instanceof PySlice) {
+			final int[] indices = ((PySlice) key).indicesEx(__len__());
+			if ((indices[2] != 1) || (value.__len__() != indices[3]))
+				throw Py.ValueError("buffer slice assignment must not change the size");
+
+			put(indices[0], value);
+
+		} else
+			mType.put(mBuffer, getIndex(key), value);
+	}
+
+	@Override
+	public void __delitem__(final PyObject key) {
+		throw Py.TypeError("buffers do not support item deletion");
+	}
+
+	@Override
+	public PyObject __iter__() {
+		return new BufferIterator(this);
+	}
+
+	@Override
+	protected Boolean isEqual(final PyObject other) {
+		final PyArray otherArray = asPyArray(other);
+		if (otherArray == null)
+			return null;
+
+		final PyObject result = toPyArray()._eq(otherArray);
+		return (result != null) ? result.__nonzero__() : null;
+	}
+
+	@Override
+	public PyObject __hash__() {
+		throw Py.TypeError("unhashable type: '" + getType().fastGetName() + "'");
+	}
+
+	@Override
+	public PyObject __add__(final PyObject other) {
+		final PyArray otherArray = asPyArray(other);
+		return (otherArray != null) ? toPyArray().__add__(otherArray) : null;
+	}
+
+	@Override
+	public PyObject __radd__(final PyObject other) {
+		final PyArray otherArray = asPyArray(other);
+		return (otherArray != null) ? otherArray.__add__(toPyArray()) : null;
+	}
+
+	@Override
+	public PyObject __mul__(final PyObject other) {
+		return toPyArray().__mul__(other);
+	}
+
+	@Override
+	public PyObject __rmul__(final PyObject other) {
+		return toPyArray().__rmul__(other);
+	}
+
+	@Override
+	public PyObject __findattr_ex__(final String name) {
+		if ("typecode".equals(name))
+			return Py.newString(String.valueOf(mType.getTypecode()));
+
+		if ("itemsize".equals(name))
+			return Py.newInteger(mType.getItemSize());
+
+		if (("put".equals(name)) || ("tolist".equals(name)) || ("toarray".equals(name)) || ("tomemoryview".equals(name)))
+			return new BufferMethod(name);
+
+		if (RESIZING_METHODS.contains(name))
+			throw Py.TypeError("buffer views have a fixed size, " + name + "() is not supported");
+
+		return super.__findattr_ex__(name);
+	}
+
+	@Override
+	public Object __tojava__(final Class<?> c) {
+		if ((c.isArray()) && (mType.getComponentType().equals(c.getComponentType())))
+			return toArray();
+
+		return super.__tojava__(c);
+	}
+
+	@Override
+	public PyBuffer getBuffer(final int flags) {
+		if ((mType == BufferElementType.BYTE) && (mBuffer.hasArray()))
+			return new SimpleWritableBuffer(flags, (byte[]) mBuffer.array(), mBuffer.arrayOffset(), __len__());
+
+		throw Py.TypeError("memoryview is only supported for byte arrays and heap byte buffers, use toarray() instead");
+	}
+
+	/**
+	 * Bulk write python values. Arrays are copied in a single operation, other iterables element by element.
+	 */
+	private void put(final int index, final PyObject values) {
+		if ((index < 0) || (index > __len__()))
+			throw Py.IndexError("buffer index out of range");
+
+		final Object array = values.__tojava__(Array.newInstance(mType.getComponentType(), 0).getClass());
+		if (array != Py.NoConversion) {
+			if (Array.getLength(array) > (__len__() - index))
+				throw Py.ValueError("too many values for buffer of size " + __len__());
+
+			mType.put(mBuffer, index, array, 0, Array.getLength(array));
+
+		} else {
+			int position = index;
+			for (final PyObject value : values.asIterable()) {
+				if (position >= __len__())
+					throw Py.ValueError("too many values for buffer of size " + __len__());
+
+				mType.put(mBuffer, position++, value);
+			}
+		}
+	}
+
+	private PyList toList() {
+		final PyList result = new PyList();
+		for (int index = 0; index < __len__(); index++)
+			result.append(mType.get(mBuffer, index));
+
+		return result;
+	}
+
+	private PyArray toPyArray() {
+		return new PyArray(mType.getComponentType(), toArray());
+	}
+
+	/**
+	 * Get an <i>array.array</i> for binary operations.
+	 *
+	 * @return array or <code>null</code> when the value is neither an array nor a buffer view
+	 */
+	private static PyArray asPyArray(final PyObject value) {
+		if (value instanceof PyArray)
+			return (PyArray) value;
+
+		if (value instanceof JavaBufferAdapter)
+			return ((JavaBufferAdapter) value).toPyArray();
+
+		return null;
+	}
+
+	private int getIndex(final PyObject key) {
+		final int size = __len__();
+		int index = key.asIndex(Py.IndexError);
+		if (index < 0)
+			index += size;
+
+		if ((index < 0) || (index >= size))
+			throw Py.IndexError("buffer index out of range");
+
+		return index;
+	}
+
+	private void checkArray(final Object array) {
+		if ((array == null) || (!mType.getComponentType().equals(array.getClass().getComponentType())))
+			throw new IllegalArgumentException("Expected array of type " + mType.getComponentType().getName() + "[]");
+	}
+}
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Christian Pontesegger and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Christian Pontesegger - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython.adapter;
+
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+
+import org.python.core.PyIterator;
+import org.python.core.PyObject;
+
+/**
+ * Python iterator backed by a java {@link Iterator}. Elements are wrapped one at a time while iterating.
+ */
+public class JavaIteratorAdapter extends PyIterator {
+
+	private static final long serialVersionUID = 3925102286391871704L;
+
+	private final Iterator<?> mIterator;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param iterator
+	 *            java iterator to wrap
+	 */
+	public JavaIteratorAdapter(final Iterator<?> iterator) {
+		mIterator = iterator;
+	}
+
+	@Override
+	public PyObject __iternext__() {
+		try {
+			if (mIterator.hasNext())
+				return JavaObjectAdapter.adapt(mIterator.next());
+
+		} catch (final ConcurrentModificationException e) {
+			// like python, report collections modified during iteration as RuntimeError
+			throw JavaObjectAdapter.invalidView();
+		}
+
+		return null;
+	}
+
+	@Override
+	public Object __tojava__(final Class<?> c) {
+		if (c.isInstance(mIterator))
+			return mIterator;
+
+		return super.__tojava__(c);
+	}
+}
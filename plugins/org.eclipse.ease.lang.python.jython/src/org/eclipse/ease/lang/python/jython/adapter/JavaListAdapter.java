@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Christian Pontesegger and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Christian Pontesegger - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython.adapter;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+
+import org.python.core.Py;
+import org.python.core.PyList;
+import org.python.core.PyObject;
+import org.python.core.PySlice;
+import org.python.core.PyTuple;
+
+/**
+ * Python view on a java {@link List}. Supports the sequence protocol: indexing with negative indices, slicing, item assignment and deletion,
+ * <code>len()</code>, iteration and the <code>in</code> operator. Containment and comparison use python equality, so <code>5 in view</code> holds
+ * for a list of {@link Long} values.
+ * <p>
+ * Partial contiguous slices return views backed by {@link List#subList(int, int)}, so slicing does not copy elements and modifications of the slice
+ * write through to the wrapped list. Such a view aliases the list: once the size of the wrapped list is changed by other means than the view, the view
+ * becomes invalid and any further access raises a <i>RuntimeError</i>. A full slice <code>lst[:]</code> returns a copy, following the python idiom for
+ * copying lists. Slices with a step other than 1 return a new python list holding the selected elements.
+ * </p>
+ * <p>
+ * Compares equal to python lists and tuples holding equal elements in the same order.
+ * </p>
+ */
+public class JavaListAdapter extends JavaObjectAdapter {
+
+	private static final long serialVersionUID = 2478631063911294317L;
+
+	private final List<Object> mList;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param list
+	 *            java list to wrap
+	 */
+	@SuppressWarnings("unchecked")
+	public JavaListAdapter(final List<?> list) {
+		super(list);
+
+		mList = (List<Object>) list;
+	}
+
+	@Override
+	public int __len__() {
+		try {
+			return mList.size();
+		} catch (final ConcurrentModificationException e) {
+			throw invalidView();
+		}
+	}
+
+	@Override
+	public boolean __nonzero__() {
+		return __len__() > 0;
+	}
+
+	@Override
+	public PyObject __finditem__(final PyObject key) {
+		try {
+			if (key instanceof PySlice) {
+				final int[] indices = ((PySlice) key).indicesEx(mList.size());
+				if (indices[2] == 1) {
+					if ((indices[0] == 0) && (indices[3] == mList.size()))
+						// full slice, copy
+						return new JavaListAdapter(new ArrayList<Object>(mList));
+
+					return new JavaListAdapter(mList.subList(indices[0], indices[0] + indices[3]));
+				}
+
+				final PyList result = new PyList();
+				for (int index = 0, position = indices[0]; index < indices[3]; index++, position += indices[2])
+					result.append(adapt(mList.get(position)));
+
+				return result;
+			}
+
+			return adapt(mList.get(getIndex(key)));
+
+		} catch (final ConcurrentModificationException e) {
+			throw invalidView();
+		}
+	}
+
+	@Override
+	public PyObject __getitem__(final PyObject key) {
+		return __finditem__(key);
+	}
+
+	@Override
+	public void __setitem__(final PyObject key, final PyObject value) {
+		try {
+			if (key instanceof PySlice) {
+				final List<Object> range = getRange((PySlice) key);
+				final List<Object> elements = new ArrayList<Object>();
+				for (final PyObject element : value.asIterable())
+					elements.add(toJava(element));
+
+				range.clear();
+				range.addAll(elements);
+
+			} else
+				mList.set(getIndex(key), toJava(value));
+
+		} catch (final ConcurrentModificationException e) {
+			throw invalidView();
+		}
+	}
+
+	@Override
+	public void __delitem__(final PyObject key) {
+		try {
+			if (key instanceof PySlice)
+				getRange((PySlice) key).clear();
+			else
+				mList.remove(getIndex(key));
+
+		} catch (final ConcurrentModificationException e) {
+			throw invalidView();
+		}
+	}
+
+	@Override
+	public PyObject __iter__() {
+		try {
+			return new JavaIteratorAdapter(mList.iterator());
+		} catch (final ConcurrentModificationException e) {
+			throw invalidView();
+		}
+	}
+
+	@Override
+	public boolean __contains__(final PyObject o) {
+		try {
+			for (final Object element : mList) {
+				if (areEqual(adapt(element), o))
+					return true;
+			}
+
+			return false;
+
+		} catch (final ConcurrentModificationException e) {
+			throw invalidView();
+		}
+	}
+
+	@Override
+	protected Boolean isEqual(final PyObject other) {
+		if ((other instanceof PyList) || (other instanceof PyTuple)) {
+			try {
+				if (other.__len__() != mList.size())
+					return false;
+
+				for (int index = 0; index < mList.size(); index++) {
+					if (!areEqual(adapt(mList.get(index)), other.__getitem__(index)))
+						return false;
+				}
+
+				return true;
+
+			} catch (final ConcurrentModificationException e) {
+				throw invalidView();
+			}
+		}
+
+		return super.isEqual(other);
+	}
+
+	/**
+	 * Get the list index for a python index. Negative indices count from the end of the list.
+	 */
+	private int getIndex(final PyObject key) {
+		final int size = mList.size();
+		int index = key.asIndex(Py.IndexError);
+		if (index < 0)
+			index += size;
+
+		if ((index < 0) || (index >= size))
+			throw Py.IndexError("list index out of range");
+
+		return index;
+	}
+
+	/**
+	 * Get a modifiable view on a contiguous slice.
+	 */
+	private List<Object> getRange(final PySlice slice) {
+		final int[] indices = slice.indicesEx(mList.size());
+		if (indices[2] != 1)
+			throw Py.TypeError("extended slice modification is not supported for java lists");
+
+		return mList.subList(indices[0], indices[0] + indices[3]);
+	}
+}
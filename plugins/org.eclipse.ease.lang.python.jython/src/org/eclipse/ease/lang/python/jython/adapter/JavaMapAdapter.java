@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Christian Pontesegger and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Christian Pontesegger - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython.adapter;
+
+import java.util.Map;
+
+import org.python.core.Py;
+import org.python.core.PyDictionary;
+import org.python.core.PyObject;
+import org.python.core.PyStringMap;
+
+/**
+ * Python view on a java {@link Map}. Supports the mapping protocol: item access, assignment and deletion, <code>len()</code>, iteration over keys and
+ * the <code>in</code> operator. Keys are converted to java before each lookup, numeric keys match regardless of their java wrapper type. Compares equal
+ * to python dictionaries holding equal items.
+ */
+public class JavaMapAdapter extends JavaObjectAdapter {
+
+	private static final long serialVersionUID = -5185313260374528112L;
+
+	/** Marker for keys not contained in the map, as maps may contain <code>null</code> keys. */
+	private static final Object NOT_FOUND = new Object();
+
+	private final Map<Object, Object> mMap;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param map
+	 *            java map to wrap
+	 */
+	@SuppressWarnings("unchecked")
+	public JavaMapAdapter(final Map<?, ?> map) {
+		super(map);
+
+		mMap = (Map<Object, Object>) map;
+	}
+
+	@Override
+	public int __len__() {
+		return mMap.size();
+	}
+
+	@Override
+	protected Boolean isEqual(final PyObject other) {
+		if ((other instanceof PyDictionary) || (other instanceof PyStringMap)) {
+			if (other.__len__() != mMap.size())
+				return false;
+
+			for (final Map.Entry<Object, Object> entry : mMap.entrySet()) {
+				final PyObject value = other.__finditem__(adapt(entry.getKey()));
+				if ((value == null) || (!areEqual(adapt(entry.getValue()), value)))
+					return false;
+			}
+
+			return true;
+		}
+
+		return super.isEqual(other);
+	}
+
+	@Override
+	public boolean __nonzero__() {
+		return !mMap.isEmpty();
+	}
+
+	@Override
+	public PyObject __finditem__(final PyObject key) {
+		final Object javaKey = findKey(key);
+		if (javaKey == NOT_FOUND)
+			return null;
+
+		final Object value = mMap.get(javaKey);
+		return (value != null) ? adapt(value) : Py.None;
+	}
+
+	@Override
+	public PyObject __getitem__(final PyObject key) {
+		final PyObject value = __finditem__(key);
+		if (value == null)
+			throw Py.KeyError(key);
+
+		return value;
+	}
+
+	@Override
+	public void __setitem__(final PyObject key, final PyObject value) {
+		mMap.put(toJava(key), toJava(value));
+	}
+
+	@Override
+	public void __delitem__(final PyObject key) {
+		final Object javaKey = findKey(key);
+		if (javaKey == NOT_FOUND)
+			throw Py.KeyError(key);
+
+		mMap.remove(javaKey);
+	}
+
+	@Override
+	public PyObject __iter__() {
+		return new JavaIteratorAdapter(mMap.keySet().iterator());
+	}
+
+	@Override
+	public boolean __contains__(final PyObject o) {
+		return findKey(o) != NOT_FOUND;
+	}
+
+	/**
+	 * Get the java key stored in the map for a python key.
+	 *
+	 * @return stored key or {@link #NOT_FOUND}
+	 */
+	private Object findKey(final PyObject key) {
+		for (final Object candidate : getKeyCandidates(toJava(key))) {
+			if (mMap.containsKey(candidate))
+				return candidate;
+		}
+
+		return NOT_FOUND;
+	}
+}
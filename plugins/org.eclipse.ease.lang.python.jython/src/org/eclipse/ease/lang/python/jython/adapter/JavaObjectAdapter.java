@@ -0,0 +1,264 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Christian Pontesegger and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Christian Pontesegger - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython.adapter;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.python.core.Py;
+import org.python.core.PyException;
+import org.python.core.PyObject;
+import org.python.core.PyString;
+
+/**
+ * Base class for python views on java collections. Python protocols (length, item access, iteration, containment) are implemented natively and work
+ * directly on the wrapped java object, nothing gets copied. Attribute access is delegated to the default java proxy, so java methods like
+ * <code>add()</code> or <code>size()</code> remain available to scripts.
+ * <p>
+ * Equality and hashing follow {@link Object#equals(Object)} and {@link Object#hashCode()} of the wrapped object. Subclasses additionally compare
+ * element-wise against their python counterparts.
+ * </p>
+ */
+public abstract class JavaObjectAdapter extends PyObject {
+
+	private static final long serialVersionUID = -1429410587240125366L;
+
+	private final Object mObject;
+
+	/** Default jython proxy, created on first attribute access. */
+	private transient PyObject mProxy = null;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param object
+	 *            wrapped java object
+	 */
+	protected JavaObjectAdapter(final Object object) {
+		mObject = object;
+	}
+
+	/**
+	 * Get the wrapped java object.
+	 *
+	 * @return java object
+	 */
+	public Object getJavaObject() {
+		return mObject;
+	}
+
+	/**
+	 * Get the default jython proxy of the wrapped object, used for attribute access.
+	 *
+	 * @return jython proxy
+	 */
+	protected PyObject getProxy() {
+		if (mProxy == null)
+			mProxy = Py.java2py(mObject);
+
+		return mProxy;
+	}
+
+	@Override
+	public PyObject __findattr_ex__(final String name) {
+		return getProxy().__findattr_ex__(name);
+	}
+
+	@Override
+	public PyObject __dir__() {
+		return getProxy().__dir__();
+	}
+
+	@Override
+	public Object __tojava__(final Class<?> c) {
+		if (c.isInstance(mObject))
+			return mObject;
+
+		return getProxy().__tojava__(c);
+	}
+
+	@Override
+	public PyObject __eq__(final PyObject other) {
+		final Boolean equal = isEqual(other);
+		return (equal != null) ? Py.newBoolean(equal) : null;
+	}
+
+	@Override
+	public PyObject __ne__(final PyObject other) {
+		final Boolean equal = isEqual(other);
+		return (equal != null) ? Py.newBoolean(!equal) : null;
+	}
+
+	@Override
+	public PyObject __hash__() {
+		return Py.newInteger(mObject.hashCode());
+	}
+
+	/**
+	 * Compare the wrapped object to a python object. Other adapters and wrapped java objects are compared using {@link Object#equals(Object)}.
+	 * Subclasses override this method to compare against python containers.
+	 *
+	 * @param other
+	 *            python object to compare to
+	 * @return comparison result or <code>null</code> when the objects cannot be compared
+	 */
+	protected Boolean isEqual(final PyObject other) {
+		if (other instanceof JavaObjectAdapter)
+			return mObject.equals(((JavaObjectAdapter) other).mObject);
+
+		final Object javaObject = other.__tojava__(Object.class);
+		if ((javaObject != Py.NoConversion) && (!(javaObject instanceof PyObject)))
+			return mObject.equals(javaObject);
+
+		return null;
+	}
+
+	/**
+	 * Compare two python objects using python equality.
+	 *
+	 * @param first
+	 *            first object
+	 * @param second
+	 *            second object
+	 * @return <code>true</code> when both objects are equal
+	 */
+	protected static boolean areEqual(final PyObject first, final PyObject second) {
+		final PyObject result = first._eq(second);
+		return (result != null) && (result.__nonzero__());
+	}
+
+	/**
+	 * Get the java objects a key might be stored as. Python considers numbers of different types equal when their values match, e.g.
+	 * <code>5 == 5L == 5.0</code>, while java collections do not. Numbers are therefore looked up in all wrapper representations of their value. The
+	 * key itself is always the first candidate.
+	 *
+	 * @param key
+	 *            java key, may be <code>null</code>
+	 * @return lookup candidates
+	 */
+	protected static List<Object> getKeyCandidates(final Object key) {
+		if (!((key instanceof Byte) || (key instanceof Short) || (key instanceof Integer) || (key instanceof Long) || (key instanceof BigInteger)
+				|| (key instanceof Float) || (key instanceof Double)))
+			return Collections.singletonList(key);
+
+		final List<Object> candidates = new ArrayList<Object>();
+		candidates.add(key);
+
+		final double doubleValue = ((Number) key).doubleValue();
+		final long longValue;
+		if (key instanceof BigInteger) {
+			if (((BigInteger) key).bitLength() >= Long.SIZE)
+				return candidates;
+
+			longValue = ((BigInteger) key).longValue();
+
+		} else if ((key instanceof Float) || (key instanceof Double)) {
+			if ((doubleValue != Math.rint(doubleValue)) || (Math.abs(doubleValue) >= Long.MAX_VALUE)) {
+				// no integral representation
+				candidates.add(doubleValue);
+				if ((float) doubleValue == doubleValue)
+					candidates.add((float) doubleValue);
+
+				return candidates;
+			}
+
+			longValue = (long) doubleValue;
+
+		} else
+			longValue = ((Number) key).longValue();
+
+		if (longValue == (byte) longValue)
+			candidates.add((byte) longValue);
+		if (longValue == (short) longValue)
+			candidates.add((short) longValue);
+		if (longValue == (int) longValue)
+			candidates.add((int) longValue);
+		candidates.add(longValue);
+		candidates.add(BigInteger.valueOf(longValue));
+		if ((long) (double) longValue == longValue)
+			candidates.add((double) longValue);
+		if ((long) (float) longValue == longValue)
+			candidates.add((float) longValue);
+
+		return candidates;
+	}
+
+	/**
+	 * Create the python error raised when the wrapped collection was modified in a way invalidating this view or a running iteration.
+	 *
+	 * @return <i>RuntimeError</i> to be thrown
+	 */
+	protected static PyException invalidView() {
+		return Py.RuntimeError("java collection changed while being accessed; slice views become invalid when their list changes size");
+	}
+
+	@Override
+	public PyString __repr__() {
+		return Py.newStringOrUnicode(String.valueOf(mObject));
+	}
+
+	@Override
+	public PyString __str__() {
+		return __repr__();
+	}
+
+	/**
+	 * Wrap a java object for python. Lists, maps, sets, iterators, primitive arrays and byte buffers are wrapped in adapters, all other objects use
+	 * the default jython conversion.
+	 *
+	 * @param value
+	 *            java object, may be <code>null</code>
+	 * @return python object
+	 */
+	public static PyObject adapt(final Object value) {
+		if (value instanceof PyObject)
+			return (PyObject) value;
+
+		if (value instanceof List<?>)
+			return new JavaListAdapter((List<?>) value);
+
+		if (value instanceof Map<?, ?>)
+			return new JavaMapAdapter((Map<?, ?>) value);
+
+		if (value instanceof Set<?>)
+			return new JavaSetAdapter((Set<?>) value);
+
+		if (value instanceof Iterator<?>)
+			return new JavaIteratorAdapter((Iterator<?>) value);
+
+		final JavaBufferAdapter buffer = JavaBufferAdapter.wrap(value);
+		if (buffer != null)
+			return buffer;
+
+		return Py.java2py(value);
+	}
+
+	/**
+	 * Convert a python object to be stored in a java collection. Wrapped java objects get unpacked, python primitives are converted to their java
+	 * counterparts.
+	 *
+	 * @param value
+	 *            python object
+	 * @return java object
+	 */
+	protected static Object toJava(final PyObject value) {
+		if (value == Py.None)
+			return null;
+
+		final Object result = value.__tojava__(Object.class);
+		return (result == Py.NoConversion) ? value : result;
+	}
+}
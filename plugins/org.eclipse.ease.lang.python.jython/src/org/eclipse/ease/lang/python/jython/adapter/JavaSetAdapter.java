@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Christian Pontesegger and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Christian Pontesegger - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython.adapter;
+
+import java.util.Set;
+
+import org.python.core.BaseSet;
+import org.python.core.PyObject;
+
+/**
+ * Python view on a java {@link Set}. Supports <code>len()</code>, iteration and the <code>in</code> operator. Numeric elements match regardless of
+ * their java wrapper type. Compares equal to python sets holding equal elements.
+ */
+public class JavaSetAdapter extends JavaObjectAdapter {
+
+	private static final long serialVersionUID = 7360512946820317561L;
+
+	private final Set<?> mSet;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param set
+	 *            java set to wrap
+	 */
+	public JavaSetAdapter(final Set<?> set) {
+		super(set);
+
+		mSet = set;
+	}
+
+	@Override
+	public int __len__() {
+		return mSet.size();
+	}
+
+	@Override
+	protected Boolean isEqual(final PyObject other) {
+		if (other instanceof BaseSet) {
+			if (other.__len__() != mSet.size())
+				return false;
+
+			for (final Object element : mSet) {
+				if (!other.__contains__(adapt(element)))
+					return false;
+			}
+
+			return true;
+		}
+
+		return super.isEqual(other);
+	}
+
+	@Override
+	public boolean __nonzero__() {
+		return !mSet.isEmpty();
+	}
+
+	@Override
+	public PyObject __iter__() {
+		return new JavaIteratorAdapter(mSet.iterator());
+	}
+
+	@Override
+	public boolean __contains__(final PyObject o) {
+		for (final Object candidate : getKeyCandidates(toJava(o))) {
+			if (mSet.contains(candidate))
+				return true;
+		}
+
+		return false;
+	}
+}
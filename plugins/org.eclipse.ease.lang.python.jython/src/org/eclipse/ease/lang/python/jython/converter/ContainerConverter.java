@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Christian Pontesegger and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Christian Pontesegger - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython.converter;
+
+import org.python.core.PyObject;
+
+/**
+ * Base class for converters of python containers. Containers are converted on the top level only, unless deep conversion is requested. Converted
+ * containers need to be registered with the context before their elements are converted, so recursive structures resolve to the same java object.
+ */
+public abstract class ContainerConverter implements IPythonConverter {
+
+	@Override
+	public Object toJava(final PyObject value, final ConversionContext context) {
+		final Object container = createContainer(value);
+		context.register(value, container);
+		fill(value, container, context);
+
+		return container;
+	}
+
+	/**
+	 * Create an empty java container.
+	 *
+	 * @param value
+	 *            python container
+	 * @return java container
+	 */
+	protected abstract Object createContainer(PyObject value);
+
+	/**
+	 * Convert elements of a python container.
+	 *
+	 * @param value
+	 *            python container
+	 * @param container
+	 *            java container created by {@link #createContainer(PyObject)}
+	 * @param context
+	 *            context to convert elements with
+	 */
+	protected abstract void fill(PyObject value, Object container, ConversionContext context);
+}
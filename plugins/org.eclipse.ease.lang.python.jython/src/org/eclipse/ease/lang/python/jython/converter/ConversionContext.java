@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Christian Pontesegger and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Christian Pontesegger - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython.converter;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.python.core.PyObject;
+
+/**
+ * State of a single conversion. Tracks converted containers to detect cycles and limits the conversion depth for shallow conversions.
+ */
+public class ConversionContext {
+
+	private final ConverterRegistry mRegistry;
+
+	private final boolean mDeep;
+
+	/** Containers converted so far, identical python objects convert to identical java objects. */
+	private final Map<PyObject, Object> mConverted = new IdentityHashMap<PyObject, Object>();
+
+	private int mDepth = 0;
+
+	ConversionContext(final ConverterRegistry registry, final boolean deep) {
+		mRegistry = registry;
+		mDeep = deep;
+	}
+
+	/**
+	 * Convert a python object. Nested containers are converted for deep conversions only, otherwise they are returned unmodified.
+	 *
+	 * @param value
+	 *            python object, may be <code>null</code>
+	 * @return converted object
+	 */
+	public Object convert(final PyObject value) {
+		if (value == null)
+			return null;
+
+		final IPythonConverter converter = mRegistry.getConverter(value.getClass());
+		if (converter == null)
+			return ConverterRegistry.toJavaFallback(value);
+
+		if (converter instanceof ContainerConverter) {
+			if ((mDepth > 0) && (!mDeep))
+				return value;
+
+			final Object converted = mConverted.get(value);
+			if (converted != null)
+				// cycle or shared container
+				return converted;
+		}
+
+		mDepth++;
+		try {
+			return converter.toJava(value, this);
+		} finally {
+			mDepth--;
+		}
+	}
+
+	/**
+	 * Register a converted container before its elements are converted.
+	 *
+	 * @param value
+	 *            python container
+	 * @param converted
+	 *            java container
+	 */
+	public void register(final PyObject value, final Object converted) {
+		mConverted.put(value, converted);
+	}
+
+	/**
+	 * Check whether nested containers get converted.
+	 *
+	 * @return <code>true</code> for deep conversions
+	 */
+	public boolean isDeep() {
+		return mDeep;
+	}
+}
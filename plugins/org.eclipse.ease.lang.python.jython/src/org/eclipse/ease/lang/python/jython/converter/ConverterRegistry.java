@@ -0,0 +1,332 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Christian Pontesegger and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Christian Pontesegger - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython.converter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IConfigurationElement;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.ease.Logger;
+import org.eclipse.ease.lang.python.jython.Activator;
+import org.eclipse.ease.lang.python.jython.adapter.JavaIteratorAdapter;
+import org.eclipse.ease.lang.python.jython.adapter.JavaObjectAdapter;
+import org.osgi.framework.Bundle;
+import org.python.core.BaseSet;
+import org.python.core.PyArray;
+import org.python.core.PyBoolean;
+import org.python.core.PyDictionary;
+import org.python.core.PyFloat;
+import org.python.core.PyInteger;
+import org.python.core.PyList;
+import org.python.core.PyLong;
+import org.python.core.PyNone;
+import org.python.core.PyObject;
+import org.python.core.PyObjectDerived;
+import org.python.core.PyString;
+import org.python.core.PyStringMap;
+import org.python.core.PyTuple;
+
+/**
+ * Registry of python to java converters. Converters are registered per python class and apply to subclasses as well, the converter of the nearest
+ * registered superclass wins. Lookups are cached per class, so dispatching costs a single map lookup once a class has been seen.
+ * <p>
+ * Built-in converters handle None, booleans, numbers, strings, wrapped java objects, arrays, lists, tuples, dictionaries and sets. Further converters are
+ * contributed by the <i>org.eclipse.ease.lang.python.jython.converters</i> extension point or registered using
+ * {@link #register(Class, IPythonConverter)}.
+ * </p>
+ */
+public class ConverterRegistry {
+
+	private static final String EXTENSION_CONVERTER_ID = "org.eclipse.ease.lang.python.jython.converters";
+
+	private static final String CONVERTER = "converter";
+
+	private static final String CONVERTER_TYPE = "type";
+
+	private static final String CONVERTER_CLASS = "class";
+
+	/** Marker for classes without converter, as concurrent maps do not support null values. */
+	private static final IPythonConverter NO_CONVERTER = new IPythonConverter() {
+
+		@Override
+		public Object toJava(final PyObject value, final ConversionContext context) {
+			return toJavaFallback(value);
+		}
+	};
+
+	/** Registered converters. */
+	private final Map<Class<?>, IPythonConverter> mConverters = new ConcurrentHashMap<Class<?>, IPythonConverter>();
+
+	/** Resolved converters per concrete class. */
+	private final ConcurrentHashMap<Class<?>, IPythonConverter> mDispatchCache = new ConcurrentHashMap<Class<?>, IPythonConverter>();
+
+	/** Incremented on each registration change. Lookups racing with a change must not cache their possibly outdated result. */
+	private volatile int mGeneration = 0;
+
+	/**
+	 * Constructor. Registers built-in converters.
+	 */
+	public ConverterRegistry() {
+		register(PyNone.class, new IPythonConverter() {
+
+			@Override
+			public Object toJava(final PyObject value, final ConversionContext context) {
+				return null;
+			}
+		});
+
+		register(PyBoolean.class, new IPythonConverter() {
+
+			@Override
+			public Object toJava(final PyObject value, final ConversionContext context) {
+				return ((PyBoolean) value).getBooleanValue();
+			}
+		});
+
+		register(PyInteger.class, new IPythonConverter() {
+
+			@Override
+			public Object toJava(final PyObject value, final ConversionContext context) {
+				return ((PyInteger) value).getValue();
+			}
+		});
+
+		register(PyLong.class, new IPythonConverter() {
+
+			@Override
+			public Object toJava(final PyObject value, final ConversionContext context) {
+				return ((PyLong) value).getValue();
+			}
+		});
+
+		register(PyFloat.class, new IPythonConverter() {
+
+			@Override
+			public Object toJava(final PyObject value, final ConversionContext context) {
+				return ((PyFloat) value).getValue();
+			}
+		});
+
+		register(PyString.class, new IPythonConverter() {
+
+			@Override
+			public Object toJava(final PyObject value, final ConversionContext context) {
+				return ((PyString) value).getString();
+			}
+		});
+
+		register(PyObjectDerived.class, new IPythonConverter() {
+
+			@Override
+			public Object toJava(final PyObject value, final ConversionContext context) {
+				// unpack wrapped java objects
+				return value.__tojava__(Object.class);
+			}
+		});
+
+		final IPythonConverter adapterConverter = new IPythonConverter() {
+
+			@Override
+			public Object toJava(final PyObject value, final ConversionContext context) {
+				// views on java collections convert back to the original collection
+				return value.__tojava__(Object.class);
+			}
+		};
+		register(JavaObjectAdapter.class, adapterConverter);
+		register(JavaIteratorAdapter.class, adapterConverter);
+
+		register(PyArray.class, new IPythonConverter() {
+
+			@Override
+			public Object toJava(final PyObject value, final ConversionContext context) {
+				// array.array instances are backed by primitive java arrays
+				return value.__tojava__(Object.class);
+			}
+		});
+
+		register(PyList.class, new ContainerConverter() {
+
+			@Override
+			protected Object createContainer(final PyObject value) {
+				return new ArrayList<Object>(value.__len__());
+			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			protected void fill(final PyObject value, final Object container, final ConversionContext context) {
+				final List<Object> list = (List<Object>) container;
+				for (final Object element : ((PyList) value).getList())
+					list.add(context.convert((PyObject) element));
+			}
+		});
+
+		register(PyTuple.class, new ContainerConverter() {
+
+			@Override
+			protected Object createContainer(final PyObject value) {
+				return new ArrayList<Object>(value.__len__());
+			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			protected void fill(final PyObject value, final Object container, final ConversionContext context) {
+				final List<Object> list = (List<Object>) container;
+				for (final PyObject element : ((PyTuple) value).getArray())
+					list.add(context.convert(element));
+			}
+		});
+
+		final ContainerConverter mapConverter = new ContainerConverter() {
+
+			@Override
+			protected Object createContainer(final PyObject value) {
+				return new LinkedHashMap<Object, Object>();
+			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			protected void fill(final PyObject value, final Object container, final ConversionContext context) {
+				final Map<Object, Object> map = (Map<Object, Object>) container;
+				for (final PyObject key : value.asIterable())
+					map.put(context.convert(key), context.convert(value.__finditem__(key)));
+			}
+		};
+		register(PyDictionary.class, mapConverter);
+		register(PyStringMap.class, mapConverter);
+
+		register(BaseSet.class, new ContainerConverter() {
+
+			@Override
+			protected Object createContainer(final PyObject value) {
+				return new LinkedHashSet<Object>();
+			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			protected void fill(final PyObject value, final Object container, final ConversionContext context) {
+				final Collection<Object> set = (Collection<Object>) container;
+				for (final PyObject element : value.asIterable())
+					set.add(context.convert(element));
+			}
+		});
+	}
+
+	/**
+	 * Register a converter for a python class and its subclasses. Replaces an existing converter for the same class.
+	 *
+	 * @param type
+	 *            python class to convert
+	 * @param converter
+	 *            converter to use
+	 */
+	public synchronized void register(final Class<? extends PyObject> type, final IPythonConverter converter) {
+		mConverters.put(type, converter);
+		mGeneration++;
+		mDispatchCache.clear();
+	}
+
+	/**
+	 * Remove a converter registration.
+	 *
+	 * @param type
+	 *            python class to remove the converter for
+	 */
+	public synchronized void unregister(final Class<? extends PyObject> type) {
+		mConverters.remove(type);
+		mGeneration++;
+		mDispatchCache.clear();
+	}
+
+	/**
+	 * Load converters contributed by other bundles.
+	 */
+	public void loadExtensions() {
+		for (final IConfigurationElement element : Platform.getExtensionRegistry().getConfigurationElementsFor(EXTENSION_CONVERTER_ID)) {
+			if (!CONVERTER.equals(element.getName()))
+				continue;
+
+			try {
+				final Bundle bundle = Platform.getBundle(element.getContributor().getName());
+				final Class<?> type = bundle.loadClass(element.getAttribute(CONVERTER_TYPE));
+				final Object converter = element.createExecutableExtension(CONVERTER_CLASS);
+
+				if ((PyObject.class.isAssignableFrom(type)) && (converter instanceof IPythonConverter))
+					register(type.asSubclass(PyObject.class), (IPythonConverter) converter);
+				else
+					Logger.logError("Invalid python converter contributed by " + element.getContributor().getName(), Activator.PLUGIN_ID);
+
+			} catch (final ClassNotFoundException e) {
+				Logger.logError("Unknown python type for converter: " + element.getAttribute(CONVERTER_TYPE), Activator.PLUGIN_ID);
+			} catch (final CoreException e) {
+				Logger.logError("Could not create python converter: " + element.getAttribute(CONVERTER_CLASS), Activator.PLUGIN_ID);
+			}
+		}
+	}
+
+	/**
+	 * Get the converter responsible for a python class.
+	 *
+	 * @param type
+	 *            python class
+	 * @return converter or <code>null</code> when no converter is registered
+	 */
+	public IPythonConverter getConverter(final Class<?> type) {
+		IPythonConverter converter = mDispatchCache.get(type);
+		if (converter == null) {
+			final int generation = mGeneration;
+
+			converter = NO_CONVERTER;
+			for (Class<?> candidate = type; candidate != null; candidate = candidate.getSuperclass()) {
+				final IPythonConverter registered = mConverters.get(candidate);
+				if (registered != null) {
+					converter = registered;
+					break;
+				}
+			}
+
+			mDispatchCache.put(type, converter);
+
+			// registrations changed meanwhile, the cache might have been cleared before our put
+			if (generation != mGeneration)
+				mDispatchCache.remove(type, converter);
+		}
+
+		return (converter != NO_CONVERTER) ? converter : null;
+	}
+
+	/**
+	 * Convert a python object to java.
+	 *
+	 * @param value
+	 *            python object, may be <code>null</code>
+	 * @param deep
+	 *            convert nested containers as well. Otherwise nested containers stay python objects
+	 * @return converted object, python objects without java counterpart are returned unmodified
+	 */
+	public Object toJava(final PyObject value, final boolean deep) {
+		return new ConversionContext(this, deep).convert(value);
+	}
+
+	/**
+	 * Conversion for objects without registered converter: wrapped java instances get unpacked, all other objects are returned unmodified.
+	 */
+	static Object toJavaFallback(final PyObject value) {
+		final Object proxy = value.getJavaProxy();
+		return (proxy != null) ? proxy : value;
+	}
+}
@@ -0,0 +1,31 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Christian Pontesegger and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Christian Pontesegger - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython.converter;
+
+import org.python.core.PyObject;
+
+/**
+ * Converts python objects of a given type to java objects. Converters are registered per python class in the {@link ConverterRegistry}, either
+ * programmatically or using the <i>org.eclipse.ease.lang.python.jython.converters</i> extension point.
+ */
+public interface IPythonConverter {
+
+	/**
+	 * Convert a python object.
+	 *
+	 * @param value
+	 *            python object to convert, never <code>null</code>
+	 * @param context
+	 *            conversion context, used to convert nested elements
+	 * @return converted java object
+	 */
+	Object toJava(PyObject value, ConversionContext context);
+}
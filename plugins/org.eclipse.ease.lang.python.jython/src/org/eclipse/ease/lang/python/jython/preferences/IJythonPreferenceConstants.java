@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Christian Pontesegger and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Christian Pontesegger - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython.preferences;
+
+/**
+ * Preference keys of the Jython engine. Values are stored in the preference store of the jython plug-in.
+ */
+public interface IJythonPreferenceConstants {
+
+	/** Maximum amount of compiled scripts kept in memory. */
+	String CODE_CACHE_SIZE = "codeCacheSize";
+
+	/** Store compiled scripts as $py.class files in the plug-in state location. */
+	String CODE_CACHE_PERSISTENT = "codeCachePersistent";
+
+	/** Maximum amount of pre-created interpreters, 0 disables pooling. */
+	String INTERPRETER_POOL_SIZE = "interpreterPoolSize";
+
+	/** Refill the interpreter pool when less idle interpreters are available. */
+	String INTERPRETER_POOL_MIN_IDLE = "interpreterPoolMinIdle";
+
+	/** Time in seconds after which idle pooled interpreters get evicted. */
+	String INTERPRETER_POOL_IDLE_TIMEOUT = "interpreterPoolIdleTimeout";
+
+	/** Top level java packages imported on engine startup, separated by ';'. Other top level packages are bound lazily. */
+	String PREBOUND_JAVA_PACKAGES = "preboundJavaPackages";
+
+	/** Use the python trace function of edb.py instead of the native java tracer when debugging. */
+	String DEBUGGER_PYTHON_TRACER = "debuggerPythonTracer";
+
+	/** Sampling interval of the sampling profiler in milliseconds. */
+	String PROFILER_SAMPLING_INTERVAL = "profilerSamplingInterval";
+
+	/** Maximum amount of distinct stacks recorded by the sampling profiler. */
+	String PROFILER_MAX_STACKS = "profilerMaxStacks";
+}
@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Christian Pontesegger and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Christian Pontesegger - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.ease.lang.python.jython.preferences;
+
+import org.eclipse.core.runtime.preferences.AbstractPreferenceInitializer;
+import org.eclipse.ease.lang.python.jython.Activator;
+import org.eclipse.ease.lang.python.jython.SamplingProfiler;
+import org.eclipse.jface.preference.IPreferenceStore;
+
+/**
+ * Default values for the Jython engine preferences.
+ */
+public class PreferenceInitializer extends AbstractPreferenceInitializer {
+
+	@Override
+	public void initializeDefaultPreferences() {
+		final IPreferenceStore store = Activator.getDefault().getPreferenceStore();
+
+		store.setDefault(IJythonPreferenceConstants.CODE_CACHE_SIZE, 64);
+		store.setDefault(IJythonPreferenceConstants.CODE_CACHE_PERSISTENT, false);
+
+		store.setDefault(IJythonPreferenceConstants.INTERPRETER_POOL_SIZE, 2);
+		store.setDefault(IJythonPreferenceConstants.INTERPRETER_POOL_MIN_IDLE, 1);
+		store.setDefault(IJythonPreferenceConstants.INTERPRETER_POOL_IDLE_TIMEOUT, 300);
+
+		store.setDefault(IJythonPreferenceConstants.PREBOUND_JAVA_PACKAGES, "");
+
+		store.setDefault(IJythonPreferenceConstants.DEBUGGER_PYTHON_TRACER, false);
+
+		store.setDefault(IJythonPreferenceConstants.PROFILER_SAMPLING_INTERVAL, SamplingProfiler.DEFAULT_INTERVAL);
+		store.setDefault(IJythonPreferenceConstants.PROFILER_MAX_STACKS, SamplingProfiler.DEFAULT_MAX_STACKS);
+	}
+}